@@ -1,8 +1,12 @@
 package com.hmdp.config;
 
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import com.hmdp.interceptor.SeckillAdmissionInterceptor;
+import com.hmdp.utils.SeckillWaitingRoom;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -14,6 +18,12 @@ public class MvcConfig implements WebMvcConfigurer {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private SeckillWaitingRoom seckillWaitingRoom;
+
+    @Value("${hmdp.admin.token:}")
+    private String adminToken;
+
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
         /**
@@ -27,6 +37,15 @@ public class MvcConfig implements WebMvcConfigurer {
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
                         "/user/code", "/user/login", "/blog/hot",
-                        "/shop/**", "shop-type/**", "voucher/**", "/upload/**");
+                        "/shop/**", "shop-type/**", "voucher/**", "/upload/**",
+                        "/cache/metrics");
+
+        // 等候室：只拦截下单请求，排队和状态查询不拦截
+        registry.addInterceptor(new SeckillAdmissionInterceptor(seckillWaitingRoom))
+                .addPathPatterns("/voucher-order/seckill/*");
+
+        // 管理接口：调整订单写入lane数量、库存对账结果
+        registry.addInterceptor(new AdminInterceptor(adminToken))
+                .addPathPatterns("/voucher-order/lanes/*", "/voucher-order/reconcile");
     }
 }
@@ -0,0 +1,48 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.BloomFilterRegistry;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.OrderStatusStore;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillLocalGate;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+
+@Configuration
+public class RedisListenerConfig {
+
+    /**
+     * Redis pub/sub监听容器
+     * 1. 订阅缓存失效频道，收到key后删除本节点的一级缓存
+     * 2. 订阅布隆过滤器新增频道，将其他节点新增的id写入本节点
+     * 3. 订阅秒杀售罄频道，同步本节点的售罄标记
+     * 4. 订阅订单状态频道，唤醒本节点等待订单结果的请求
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       CacheClient cacheClient,
+                                                                       BloomFilterRegistry bloomFilterRegistry,
+                                                                       SeckillLocalGate seckillLocalGate,
+                                                                       OrderStatusStore orderStatusStore) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(
+                (message, pattern) -> cacheClient.evictLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+        container.addMessageListener(
+                (message, pattern) -> bloomFilterRegistry.addLocal(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.BLOOM_ADD_CHANNEL));
+        container.addMessageListener(
+                (message, pattern) -> seckillLocalGate.onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+        container.addMessageListener(
+                (message, pattern) -> orderStatusStore.onMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(RedisConstants.ORDER_STATUS_CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,122 @@
+package com.hmdp.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 启动时把旧版本的秒杀key迁移为带hash tag的key
+ * 1. 旧版本未分段的优惠券key以优惠券id结尾，如seckill:stock:1、seckill:order:1:0（bitmap块），
+ *    新版本改为seckill:stock:{1}、seckill:order:{1}:0，与SeckillSegments、SeckillVoucherMeta、SeckillWaitingRoom中的key一致
+ * 2. SCAN出旧key后以RENAMENX改名，新key已存在时保留新key并告警；多个节点同时迁移时，已被其他节点改名的key跳过
+ * 3. 旧key只会由单机Redis写入（旧脚本不能在Cluster上执行），Cluster模式下不迁移
+ * 4. 全部迁移后写入MIGRATED_KEY，之后启动不再扫描
+ * 在下单服务初始化之前执行，避免消费者归还库存时先创建了新key
+ */
+@Slf4j
+@Component
+public class SeckillKeyMigration {
+    public static final String MIGRATED_KEY = "seckill:migrated:tagged-keys";
+
+    private static final Pattern LEGACY_KEY =
+            Pattern.compile("^(seckill:(?:stock|order|voucher|count|room|tickets):)(\\d+)(:.+)?$");
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.seckill.key-migration.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.key-migration.scan-count:1000}")
+    private long scanCount;
+
+    @PostConstruct
+    private void init() {
+        if(!enabled || clusterMode() || Boolean.TRUE.equals(stringRedisTemplate.hasKey(MIGRATED_KEY))) {
+            return;
+        }
+        try {
+            migrate();
+        } catch(Exception e) {
+            // 未完成时不写入标记，下次启动重新迁移
+            log.error("秒杀key迁移失败", e);
+        }
+    }
+
+    /**
+     * 迁移所有旧key
+     *
+     * @return 改名的key数
+     */
+    public int migrate() {
+        long start = System.currentTimeMillis();
+        int renamed = 0;
+        int conflicts = 0;
+        for(String legacy : scanLegacyKeys()) {
+            String tagged = taggedKey(legacy);
+            try {
+                if(Boolean.TRUE.equals(stringRedisTemplate.renameIfAbsent(legacy, tagged))) {
+                    renamed++;
+                } else if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(legacy))) {
+                    conflicts++;
+                    log.warn("秒杀key迁移冲突, 新key已存在, 保留旧key: {} -> {}", legacy, tagged);
+                }
+            } catch(Exception e) {
+                // 旧key已被其他节点改名
+                if(Boolean.TRUE.equals(stringRedisTemplate.hasKey(legacy))) {
+                    throw e;
+                }
+            }
+        }
+        stringRedisTemplate.opsForValue().set(MIGRATED_KEY, String.valueOf(System.currentTimeMillis()));
+        log.info("秒杀key迁移完成, 改名: {}, 冲突: {}, 耗时{}ms", renamed, conflicts, System.currentTimeMillis() - start);
+        return renamed;
+    }
+
+    /**
+     * 旧key对应的新key，不是旧key时返回null
+     */
+    public static String taggedKey(String key) {
+        Matcher matcher = LEGACY_KEY.matcher(key);
+        if(!matcher.matches()) {
+            return null;
+        }
+        String suffix = matcher.group(3) == null ? "" : matcher.group(3);
+        return matcher.group(1) + "{" + matcher.group(2) + "}" + suffix;
+    }
+
+    private List<String> scanLegacyKeys() {
+        List<String> keys = new ArrayList<>();
+        ScanOptions options = ScanOptions.scanOptions().match("seckill:*").count(scanCount).build();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            try(Cursor<byte[]> cursor = connection.scan(options)) {
+                while(cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    if(taggedKey(key) != null) {
+                        keys.add(key);
+                    }
+                }
+            }
+            return null;
+        });
+        return keys;
+    }
+
+    private boolean clusterMode() {
+        RedisConnectionFactory factory = stringRedisTemplate.getConnectionFactory();
+        return factory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) factory).isClusterAware();
+    }
+}
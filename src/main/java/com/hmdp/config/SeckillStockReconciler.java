@@ -0,0 +1,366 @@
+package com.hmdp.config;
+
+import com.hmdp.dto.VoucherOrderCount;
+import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.SeckillBuyers;
+import com.hmdp.utils.SeckillSegments;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.SeckillVoucherMeta;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀库存对账
+ * 1. 只检查进行中（已开始、结束未超过graceMinutes）的优惠券，按voucher_id顺序分批读取
+ * 2. 每批先读取DB库存，再以一次聚合查询统计未取消的订单数，以一次pipeline读取Redis的初始库存、库存和下单用户数
+ *    （set编码为SCARD，bitmap编码为用户数计数器）
+ *    （先读库存再统计订单，并发下单只会使差异偏大，不会掩盖差异）
+ * 3. 库存与订单数之和应等于初始库存：Redis为库存 + 下单用户数（一人一单时），DB为库存 + 订单数；
+ *    异步写入中的订单在两边都未计入或都已计入，不影响结果
+ * 4. Redis与DB的下单用户数比较：差值为stream中尚未写入DB的订单，应在0与消费者组g1中
+ *    待确认和未投递的订单数之间（未投递数需Redis 7的lag，不可用时只检查下限）
+ * 5. 租用库存的优惠券，各节点本地未用完的库存不在Redis中，不检查Redis库存
+ * 6. 开启autoCorrect时，连续两次检查到相同的差异才修正：DB库存按订单数修正（以读取到的库存做乐观锁），
+ *    Redis库存由脚本按下单用户数修正；分段或每人可购买多单的优惠券只报告不修正Redis，下单用户数的差异只报告
+ */
+@Slf4j
+@Component
+public class SeckillStockReconciler {
+    private static final DefaultRedisScript<Long> RECONCILE_SCRIPT;
+
+    static {
+        RECONCILE_SCRIPT = new DefaultRedisScript<>();
+        RECONCILE_SCRIPT.setLocation(new ClassPathResource("seckill_reconcile.lua"));
+        RECONCILE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private VoucherOrderMapper voucherOrderMapper;
+    @Resource
+    private SeckillSegments seckillSegments;
+    @Resource
+    private SeckillVoucherMeta seckillVoucherMeta;
+    @Resource
+    private SeckillStockLease seckillStockLease;
+
+    @Value("${hmdp.seckill.reconcile.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.reconcile.interval-seconds:60}")
+    private long intervalSeconds;
+    @Value("${hmdp.seckill.reconcile.batch-size:200}")
+    private int batchSize;
+    // 结束后仍检查的时间，覆盖结束前下单的订单的取消和写入
+    @Value("${hmdp.seckill.reconcile.grace-minutes:30}")
+    private long graceMinutes;
+    @Value("${hmdp.seckill.reconcile.auto-correct:false}")
+    private boolean autoCorrect;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "stock-reconciler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // voucherId -> 最近一次检查到的差异，无差异时移除
+    private final Map<Long, Drift> drifts = new ConcurrentHashMap<>();
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder checked = new LongAdder();
+    private final LongAdder redisCorrected = new LongAdder();
+    private final LongAdder dbCorrected = new LongAdder();
+    private volatile long lastRunMillis;
+    private volatile long lastRunAt;
+
+    @PostConstruct
+    private void init() {
+        if(enabled) {
+            scheduler.scheduleWithFixedDelay(this::runQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 对账次数、检查的优惠券数、修正次数，以及当前存在差异的优惠券
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("autoCorrect", autoCorrect);
+        stats.put("runs", runs.sum());
+        stats.put("checked", checked.sum());
+        stats.put("lastRunAt", lastRunAt);
+        stats.put("lastRunMillis", lastRunMillis);
+        stats.put("redisCorrected", redisCorrected.sum());
+        stats.put("dbCorrected", dbCorrected.sum());
+        Map<Long, Map<String, Object>> drifted = new LinkedHashMap<>();
+        drifts.forEach((voucherId, drift) -> drifted.put(voucherId, drift.toMap()));
+        stats.put("drifts", drifted);
+        return stats;
+    }
+
+    private void runQuietly() {
+        try {
+            reconcile();
+        } catch(Exception e) {
+            log.error("库存对账失败", e);
+        }
+    }
+
+    /**
+     * 检查所有进行中的优惠券
+     */
+    public void reconcile() {
+        long start = System.currentTimeMillis();
+        LocalDateTime now = LocalDateTime.now();
+        Map<Long, Drift> found = new HashMap<>();
+        long lastId = 0;
+        while(true) {
+            List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                    .select("voucher_id", "stock")
+                    .gt("voucher_id", lastId)
+                    .le("begin_time", now)
+                    .ge("end_time", now.minusMinutes(graceMinutes))
+                    .orderByAsc("voucher_id")
+                    .last("limit " + batchSize)
+                    .list();
+            if(vouchers.isEmpty()) {
+                break;
+            }
+            reconcileBatch(vouchers, found);
+            checked.add(vouchers.size());
+            lastId = vouchers.get(vouchers.size() - 1).getVoucherId();
+            if(vouchers.size() < batchSize) {
+                break;
+            }
+        }
+        drifts.keySet().retainAll(found.keySet());
+        drifts.putAll(found);
+        runs.increment();
+        lastRunAt = start;
+        lastRunMillis = System.currentTimeMillis() - start;
+        if(!found.isEmpty()) {
+            log.warn("库存对账发现差异, 优惠券数: {}", found.size());
+        }
+    }
+
+    private void reconcileBatch(List<SeckillVoucher> vouchers, Map<Long, Drift> found) {
+        List<Long> ids = new ArrayList<>(vouchers.size());
+        for(SeckillVoucher voucher : vouchers) {
+            ids.add(voucher.getVoucherId());
+        }
+        Map<Long, VoucherOrderCount> counts = new HashMap<>();
+        for(VoucherOrderCount count : voucherOrderMapper.countByVouchers(ids)) {
+            counts.put(count.getVoucherId(), count);
+        }
+
+        // 每张优惠券：初始库存，然后每段（未分段时一个）的库存和下单用户数
+        int[] segments = new int[ids.size()];
+        boolean[] bitmaps = new boolean[ids.size()];
+        for(int i = 0; i < ids.size(); i++) {
+            segments[i] = seckillSegments.segments(ids.get(i));
+            bitmaps[i] = seckillVoucherMeta.bitmapBuyers(ids.get(i));
+        }
+        List<Object> replies = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for(int i = 0; i < ids.size(); i++) {
+                Long voucherId = ids.get(i);
+                connection.hashCommands().hGet(bytes(SeckillVoucherMeta.metaKey(voucherId)), bytes("total"));
+                for(int s = 0; s < Math.max(segments[i], 1); s++) {
+                    String stockKey = segments[i] > 0 ? SeckillSegments.stockKey(voucherId, s)
+                            : SeckillSegments.stockKey(voucherId);
+                    String orderKey = segments[i] > 0 ? SeckillSegments.orderKey(voucherId, s)
+                            : SeckillSegments.orderKey(voucherId);
+                    connection.stringCommands().get(bytes(stockKey));
+                    if(bitmaps[i]) {
+                        connection.stringCommands().get(bytes(SeckillBuyers.countKey(orderKey)));
+                    } else {
+                        connection.setCommands().sCard(bytes(orderKey));
+                    }
+                }
+            }
+            return null;
+        });
+        // 在读取Redis之后统计，期间新增的订单计入上限
+        Long inFlight = inFlightOrders();
+
+        int index = 0;
+        for(int i = 0; i < vouchers.size(); i++) {
+            SeckillVoucher voucher = vouchers.get(i);
+            Long voucherId = voucher.getVoucherId();
+            Object total = replies.get(index++);
+            long redisStock = 0;
+            long redisBuyers = 0;
+            for(int s = 0; s < Math.max(segments[i], 1); s++) {
+                Object stock = replies.get(index++);
+                Object buyers = replies.get(index++);
+                redisStock += stock == null ? 0 : Long.parseLong(stock.toString());
+                redisBuyers += buyers == null ? 0 : Long.parseLong(buyers.toString());
+            }
+            VoucherOrderCount count = counts.get(voucherId);
+            Drift drift = new Drift();
+            drift.total = total == null ? null : Long.valueOf(total.toString());
+            drift.dbStock = voucher.getStock();
+            drift.dbOrders = count == null ? 0 : count.getOrders();
+            drift.dbBuyers = count == null ? 0 : count.getBuyers();
+            drift.redisStock = redisStock;
+            drift.redisBuyers = redisBuyers;
+            drift.segmented = segments[i] > 0;
+            drift.leased = seckillStockLease.isActive(voucherId);
+            drift.onePerUser = seckillVoucherMeta.limit(voucherId) <= 1;
+            drift.inFlight = inFlight;
+            drift.compute();
+            if(!drift.drifted()) {
+                continue;
+            }
+            found.put(voucherId, drift);
+            if(autoCorrect && drift.sameAs(drifts.get(voucherId))) {
+                correct(voucherId, drift);
+            }
+        }
+    }
+
+    /**
+     * 按初始库存修正：DB库存 = 初始库存 - 订单数，Redis库存 = 初始库存 - 下单用户数
+     */
+    private void correct(Long voucherId, Drift drift) {
+        if(drift.total == null) {
+            return;
+        }
+        if(drift.dbDrift != 0) {
+            boolean updated = seckillVoucherService.update()
+                    .set("stock", drift.total - drift.dbOrders)
+                    .eq("voucher_id", voucherId)
+                    .eq("stock", drift.dbStock)
+                    .update();
+            if(updated) {
+                dbCorrected.increment();
+                log.warn("修正DB库存, voucherId: {}, {} -> {}", voucherId, drift.dbStock, drift.total - drift.dbOrders);
+            }
+        }
+        if(drift.redisDrift != null && drift.redisDrift != 0 && !drift.segmented && !drift.leased) {
+            Long stock = stringRedisTemplate.execute(RECONCILE_SCRIPT,
+                    Arrays.asList(SeckillSegments.stockKey(voucherId), SeckillSegments.orderKey(voucherId),
+                            SeckillBuyers.countKey(SeckillSegments.orderKey(voucherId))),
+                    drift.total.toString(), seckillVoucherMeta.buyerEncoding(voucherId));
+            redisCorrected.increment();
+            log.warn("修正Redis库存, voucherId: {}, {} -> {}", voucherId, drift.redisStock, stock);
+        }
+    }
+
+    /**
+     * 消费者组中尚未写入DB的订单数：待确认 + 未投递（lag），lag不可用时返回null
+     */
+    private Long inFlightOrders() {
+        try {
+            StreamInfo.XInfoGroup group = stringRedisTemplate.opsForStream()
+                    .groups(RedisConstants.SECKILL_ORDER_STREAM).stream()
+                    .filter(g -> RedisConstants.SECKILL_ORDER_GROUP.equals(g.groupName()))
+                    .findFirst().orElse(null);
+            Object lag = group == null ? null : group.getRaw().get("lag");
+            if(lag != null) {
+                long pending = group.pendingCount() == null ? 0 : group.pendingCount();
+                return pending + Long.parseLong(lag.toString());
+            }
+        } catch(Exception e) {
+            log.warn("读取订单stream的消费者组失败", e);
+        }
+        return null;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 一张优惠券的对账结果
+     */
+    private static class Drift {
+        private Long total;
+        private long dbStock;
+        private long dbOrders;
+        private long dbBuyers;
+        private long redisStock;
+        private long redisBuyers;
+        private boolean segmented;
+        private boolean leased;
+        private boolean onePerUser;
+        // 尚未写入DB的订单数，未知时为null
+        private Long inFlight;
+
+        // DB：库存 + 订单数 - 初始库存，初始库存未知时为0
+        private long dbDrift;
+        // Redis：库存 + 下单用户数 - 初始库存（未知时为DB的库存 + 订单数），每人可购买多单或租用库存时不计算
+        private Long redisDrift;
+        // Redis下单用户数 - DB下单用户数
+        private long buyerDrift;
+        // buyerDrift不在[0, inFlight]内
+        private boolean buyersDrifted;
+
+        private void compute() {
+            long dbSum = dbStock + dbOrders;
+            dbDrift = total == null ? 0 : dbSum - total;
+            redisDrift = onePerUser && !leased ? redisStock + redisBuyers - (total == null ? dbSum : total) : null;
+            buyerDrift = redisBuyers - dbBuyers;
+            buyersDrifted = buyerDrift < 0 || (inFlight != null && buyerDrift > inFlight);
+        }
+
+        private boolean drifted() {
+            return dbDrift != 0 || (redisDrift != null && redisDrift != 0) || buyersDrifted;
+        }
+
+        private boolean sameAs(Drift previous) {
+            return previous != null && previous.dbDrift == dbDrift && Objects.equals(previous.redisDrift, redisDrift);
+        }
+
+        private Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("total", total);
+            map.put("dbStock", dbStock);
+            map.put("dbOrders", dbOrders);
+            map.put("dbBuyers", dbBuyers);
+            map.put("redisStock", redisStock);
+            map.put("redisBuyers", redisBuyers);
+            map.put("dbDrift", dbDrift);
+            map.put("redisDrift", redisDrift);
+            map.put("buyerDrift", buyerDrift);
+            map.put("inFlight", inFlight);
+            map.put("segmented", segmented);
+            map.put("leased", leased);
+            return map;
+        }
+    }
+}
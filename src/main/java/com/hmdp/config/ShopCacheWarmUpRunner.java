@@ -0,0 +1,151 @@
+package com.hmdp.config;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 启动时预热店铺缓存和店铺GEO数据
+ * 1. 按id顺序分批读取tb_shop，每批交给工作线程以pipeline写入Redis
+ * 2. 工作线程队列有界，队列满时由读取线程自己写入，不会一次性把整表读入内存
+ * 3. 超过时间预算后停止读取，未预热的店铺由请求按需加载
+ */
+@Slf4j
+@Component
+public class ShopCacheWarmUpRunner implements ApplicationRunner {
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${hmdp.warmup.shop.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.warmup.shop.chunk-size:500}")
+    private int chunkSize;
+    @Value("${hmdp.warmup.shop.threads:4}")
+    private int threads;
+    @Value("${hmdp.warmup.shop.budget-seconds:30}")
+    private long budgetSeconds;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if(!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long deadline = start + TimeUnit.SECONDS.toMillis(budgetSeconds);
+        long total = shopService.count();
+        AtomicLong warmed = new AtomicLong();
+        AtomicInteger threadIndex = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 2),
+                r -> {
+                    Thread thread = new Thread(r, "shop-warmup-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        long lastId = 0;
+        boolean timeout = false;
+        try {
+            while(true) {
+                if(System.currentTimeMillis() >= deadline) {
+                    timeout = true;
+                    break;
+                }
+                List<Shop> shops = shopService.query()
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + chunkSize)
+                        .list();
+                if(shops.isEmpty()) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+                executor.execute(() -> {
+                    try {
+                        warm(shops);
+                        long done = warmed.addAndGet(shops.size());
+                        log.info("店铺缓存预热进度: {}/{}, 耗时{}ms", done, total, System.currentTimeMillis() - start);
+                    } catch(Exception e) {
+                        log.error("店铺缓存预热失败, id: {} - {}", shops.get(0).getId(),
+                                shops.get(shops.size() - 1).getId(), e);
+                    }
+                });
+                if(shops.size() < chunkSize) {
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            long remaining = Math.max(deadline - System.currentTimeMillis(), 0);
+            if(!executor.awaitTermination(remaining, TimeUnit.MILLISECONDS)) {
+                timeout = true;
+                executor.shutdownNow();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        if(timeout) {
+            log.warn("店铺缓存预热超过时间预算{}s, 已预热: {}/{}", budgetSeconds, warmed.get(), total);
+        } else {
+            log.info("店铺缓存预热完成: {}/{}, 耗时{}ms", warmed.get(), total, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * 一批店铺：缓存和GEO各一次pipeline
+     */
+    private void warm(List<Shop> shops) {
+        Map<Long, Shop> values = new LinkedHashMap<>(shops.size() * 2);
+        Map<Long, Map<String, Point>> geo = new HashMap<>();
+        for(Shop shop : shops) {
+            values.put(shop.getId(), shop);
+            if(shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                geo.computeIfAbsent(shop.getTypeId(), typeId -> new HashMap<>())
+                        .put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+            }
+        }
+        cacheClient.setBatch2Redis("hmdp:shop:", values, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for(Map.Entry<Long, Map<String, Point>> entry : geo.entrySet()) {
+                    operations.opsForGeo().add(RedisConstants.SHOP_GEO_KEY + entry.getKey(), entry.getValue());
+                }
+                return null;
+            }
+        });
+    }
+}
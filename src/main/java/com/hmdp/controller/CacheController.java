@@ -0,0 +1,65 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheInvalidator;
+import com.hmdp.utils.CacheMetrics;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.HotKeyDetector;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 缓存运行状态
+ * </p>
+ */
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    /**
+     * 已自动提升为逻辑过期存储的热点key
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 按key前缀统计的缓存指标：命中率、空值命中率、锁等待、重建次数、序列化耗时
+     */
+    @GetMapping("/metrics")
+    public Result metrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("prefixes", cacheMetrics.snapshot());
+        metrics.put("rebuildExecutor", cacheRebuildExecutor.stats());
+        metrics.put("invalidator", cacheInvalidator.stats());
+        return Result.ok(metrics);
+    }
+
+    /**
+     * 缓存重建线程池状态：队列深度、重建耗时、拒绝次数
+     */
+    @GetMapping("/rebuild")
+    public Result rebuildStats() {
+        return Result.ok(cacheRebuildExecutor.stats());
+    }
+}
@@ -1,14 +1,23 @@
 package com.hmdp.controller;
 
 
+import com.hmdp.config.SeckillStockReconciler;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import javax.annotation.Resource;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * <p>
@@ -25,9 +34,82 @@ public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
 
+    @Resource
+    private SeckillStockReconciler seckillStockReconciler;
+
+    @Resource
+    private SeckillWaitingRoom seckillWaitingRoom;
+
     @PostMapping("seckill/{id}")
     public Result seckillVoucher(@PathVariable("id") Long voucherId) {
 
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    /**
+     * 等候室：领取排队号，返回排队凭证
+     */
+    @PostMapping("seckill/{id}/ticket")
+    public Result takeTicket(@PathVariable("id") Long voucherId) {
+        if(!seckillWaitingRoom.isEnabled()) {
+            return Result.fail("未开启等候室");
+        }
+        return Result.ok(seckillWaitingRoom.takeTicket(voucherId, UserHolder.getUser().getId()));
+    }
+
+    /**
+     * 等候室：查询排队状态，放行后返回购买通行证，下单时放在请求头seckill-pass中
+     */
+    @GetMapping("seckill/{id}/ticket")
+    public Result ticketStatus(@PathVariable("id") Long voucherId, @RequestParam("ticket") String ticket) {
+        if(!seckillWaitingRoom.isEnabled()) {
+            return Result.fail("未开启等候室");
+        }
+        Map<String, Object> status = seckillWaitingRoom.status(voucherId, UserHolder.getUser().getId(), ticket);
+        return status == null ? Result.fail("无效的排队凭证") : Result.ok(status);
+    }
+
+    /**
+     * 异步订单的处理结果：queued、persisted、failed、cancelled
+     * wait大于0时长轮询，最多等待30秒，等待期间不占用容器线程
+     */
+    @GetMapping("{id}/status")
+    public DeferredResult<Result> queryOrderStatus(@PathVariable("id") Long orderId,
+                                                   @RequestParam(value = "wait", defaultValue = "0") Long wait) {
+        // 超时时间大于服务的最长等待时间，正常情况下由服务完成
+        DeferredResult<Result> result = new DeferredResult<>(
+                TimeUnit.SECONDS.toMillis(IVoucherOrderService.MAX_STATUS_WAIT_SECONDS + 5));
+        voucherOrderService.queryOrderStatus(orderId, wait).whenComplete((status, e) -> {
+            if(e != null) {
+                result.setErrorResult(e);
+            } else {
+                result.setResult(status);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * 订单写入lane的积压和延迟
+     */
+    @GetMapping("lanes")
+    public Result queryOrderLanes() {
+        return voucherOrderService.queryOrderLanes();
+    }
+
+    /**
+     * 运行时调整订单写入lane的数量，管理接口，需携带请求头admin-token
+     */
+    @PutMapping("lanes/{count}")
+    public Result resizeOrderLanes(@PathVariable("count") Integer count) {
+        return voucherOrderService.resizeOrderLanes(count);
+    }
+
+    /**
+     * 秒杀库存对账：Redis与DB的库存差异和修正次数，管理接口，需携带请求头admin-token
+     */
+    @GetMapping("reconcile")
+    public Result reconcileStats() {
+        return Result.ok(seckillStockReconciler.stats());
+    }
 }
@@ -0,0 +1,13 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 一张优惠券未取消的订单数和下单用户数
+ */
+@Data
+public class VoucherOrderCount {
+    private Long voucherId;
+    private Long orders;
+    private Long buyers;
+}
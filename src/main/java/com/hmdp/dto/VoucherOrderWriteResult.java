@@ -0,0 +1,23 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.VoucherOrder;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量写入订单的结果：未写入的订单，其余订单已在DB中（包括重复投递、此前已写入的）
+ */
+@Data
+public class VoucherOrderWriteResult {
+    // 因库存不足未写入
+    private final List<VoucherOrder> rejected = new ArrayList<>();
+    // 同一用户已有该优惠券的其他订单（批内去重，或被INSERT IGNORE忽略），未写入
+    private final List<VoucherOrder> duplicated = new ArrayList<>();
+
+    public void addAll(VoucherOrderWriteResult other) {
+        rejected.addAll(other.rejected);
+        duplicated.addAll(other.duplicated);
+    }
+}
@@ -78,6 +78,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private Integer stock;
 
+    /**
+     * 每人限购数量
+     */
+    @TableField(exist = false)
+    private Integer buyLimit;
+
     /**
      * 生效时间
      */
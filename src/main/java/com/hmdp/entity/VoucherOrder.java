@@ -42,6 +42,11 @@ public class VoucherOrder implements Serializable {
      */
     private Long voucherId;
 
+    /**
+     * 唯一索引(user_id, voucher_id, buy_seq)的一部分：一人一单的有效订单为0，每人可购买多单或已取消的订单为订单id
+     */
+    private Long buySeq;
+
     /**
      * 支付方式 1：余额支付；2：支付宝；3：微信
      */
@@ -0,0 +1,34 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+public class AdminInterceptor implements HandlerInterceptor {
+    public static final String TOKEN_HEADER = "admin-token";
+
+    private final byte[] token;
+
+    // 没有加@Component，在MvcConfig中通过构造器传入
+    public AdminInterceptor(String token) {
+        this.token = StrUtil.isBlank(token) ? null : token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 管理接口：请求头admin-token必须与配置的hmdp.admin.token一致，未配置时拒绝所有请求
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        String header = request.getHeader(TOKEN_HEADER);
+        if(token == null || header == null
+                || !MessageDigest.isEqual(token, header.getBytes(StandardCharsets.UTF_8))) {
+            response.setStatus(403);
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,52 @@
+package com.hmdp.interceptor;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.Result;
+import com.hmdp.utils.SeckillWaitingRoom;
+import com.hmdp.utils.UserHolder;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+public class SeckillAdmissionInterceptor implements HandlerInterceptor {
+    private final SeckillWaitingRoom seckillWaitingRoom;
+
+    // 没有加@Component，在MvcConfig中通过构造器传入
+    public SeckillAdmissionInterceptor(SeckillWaitingRoom seckillWaitingRoom) {
+        this.seckillWaitingRoom = seckillWaitingRoom;
+    }
+
+    /**
+     * 开启等候室时，秒杀请求必须在请求头seckill-pass中携带等候室签发的通行证
+     * 通行证在本地验证，未放行的请求不访问Redis，也不进入下单流程
+     */
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if(!seckillWaitingRoom.isEnabled() || UserHolder.getUser() == null) {
+            return true;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables = (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String id = variables == null ? null : variables.get("id");
+        if(id == null) {
+            return true;
+        }
+        Long voucherId;
+        try {
+            voucherId = Long.valueOf(id);
+        } catch(NumberFormatException e) {
+            return true;
+        }
+        if(seckillWaitingRoom.admit(voucherId, UserHolder.getUser().getId(), request.getHeader("seckill-pass"))) {
+            return true;
+        }
+        response.setContentType("application/json;charset=UTF-8");
+        response.getOutputStream().write(JSONUtil.toJsonStr(Result.fail("请先排队，放行后再购买"))
+                .getBytes(StandardCharsets.UTF_8));
+        return false;
+    }
+}
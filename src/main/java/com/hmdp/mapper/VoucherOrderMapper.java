@@ -1,7 +1,11 @@
 package com.hmdp.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.dto.VoucherOrderCount;
 import com.hmdp.entity.VoucherOrder;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
 
 /**
  * <p>
@@ -13,4 +17,15 @@ import com.hmdp.entity.VoucherOrder;
  */
 public interface VoucherOrderMapper extends BaseMapper<VoucherOrder> {
 
+    /**
+     * 多行INSERT IGNORE，未指定的字段使用表的默认值；主键或唯一索引冲突的订单被忽略
+     *
+     * @return 实际插入的行数
+     */
+    int insertIgnoreBatch(@Param("orders") List<VoucherOrder> orders);
+
+    /**
+     * 按优惠券统计未取消的订单数和下单用户数，没有订单的优惠券不返回
+     */
+    List<VoucherOrderCount> countByVouchers(@Param("voucherIds") List<Long> voucherIds);
 }
@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -14,5 +16,17 @@ import com.hmdp.entity.VoucherOrder;
  */
 public interface IVoucherOrderService extends IService<VoucherOrder> {
 
+    // 长轮询查询订单状态的最长等待时间
+    long MAX_STATUS_WAIT_SECONDS = 30;
+
     Result seckillVoucher(Long voucherId);
+
+    Result resizeOrderLanes(int count);
+
+    Result queryOrderLanes();
+
+    /**
+     * 查询异步订单的处理结果，waitSeconds大于0时在状态变化或超时（最多MAX_STATUS_WAIT_SECONDS）后完成
+     */
+    CompletableFuture<Result> queryOrderStatus(Long orderId, long waitSeconds);
 }
@@ -14,12 +14,14 @@ import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BloomFilterRegistry;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -45,6 +47,20 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private IFollowService followService;
 
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+
+    /**
+     * 注册blog id的布隆过滤器，按id分批读取tb_blog构建
+     */
+    @PostConstruct
+    private void initBloomFilter() {
+        bloomFilterRegistry.register("blog", this::count,
+                lastId -> query().select("id").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + BloomFilterRegistry.CHUNK_SIZE).list()
+                        .stream().map(Blog::getId).collect(Collectors.toList()));
+    }
+
     @Override
     public Result queyHotBlog(Integer current) {
         // 根据用户查询
@@ -73,6 +89,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Result queryBlogByID(Integer id) {
+        // 布隆过滤器判断不存在的id，直接返回，不访问DB
+        if(!bloomFilterRegistry.mightContain("blog", id)) {
+            return Result.fail("blog不存在");
+        }
         Blog blog = getById(id);
         if(blog == null) {
             return Result.fail("blog不存在");
@@ -163,6 +183,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         // 保存探店博文
         boolean isSuccess = save(blog);
         if(isSuccess) {
+            bloomFilterRegistry.add("blog", blog.getId());
             // 查询粉丝list select * from tb_follow where follow_user_id = userId
             List<Follow> follows = followService.query().eq("follow_user_id", userId).list();
             // 遍历所有fans并推送blog id和时间戳
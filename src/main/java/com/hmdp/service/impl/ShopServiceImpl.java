@@ -7,8 +7,11 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.BloomFilterRegistry;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheInvalidator;
 import com.hmdp.utils.SystemConstants;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -18,11 +21,14 @@ import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -38,16 +44,71 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private BloomFilterRegistry bloomFilterRegistry;
+    @Resource
+    private CacheInvalidator cacheInvalidator;
+
+    @Value("${hmdp.cache.local.shop.enabled:true}")
+    private boolean localCacheEnabled;
+    @Value("${hmdp.cache.local.shop.max-size:1000}")
+    private int localCacheMaxSize;
+    @Value("${hmdp.cache.local.shop.ttl-seconds:60}")
+    private long localCacheTtl;
+    // 非热点店铺的读取策略：lock（互斥锁）或xfetch（概率提前刷新）
+    @Value("${hmdp.cache.shop.strategy:lock}")
+    private String cacheStrategy;
+
+    /**
+     * 为店铺的两种缓存开启一级缓存，热点店铺的读取不再访问Redis
+     */
+    @PostConstruct
+    private void initLocalCache() {
+        if(!localCacheEnabled) {
+            return;
+        }
+        cacheClient.enableLocalCache("hmdp:shop:", localCacheMaxSize, localCacheTtl, TimeUnit.SECONDS);
+        cacheClient.enableLocalCache("hmdp:shop:cache:", localCacheMaxSize, localCacheTtl, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 热点店铺自动提升为逻辑过期存储，冷却后降级
+     */
+    @PostConstruct
+    private void initHotKeyPromotion() {
+        cacheClient.enableHotKeyPromotion("hmdp:shop:", "hmdp:shop:cache:");
+    }
+
+    /**
+     * 注册店铺id的布隆过滤器，按id分批读取tb_shop构建
+     */
+    @PostConstruct
+    private void initBloomFilter() {
+        bloomFilterRegistry.register("shop", this::count,
+                lastId -> query().select("id").gt("id", lastId).orderByAsc("id")
+                        .last("LIMIT " + BloomFilterRegistry.CHUNK_SIZE).list()
+                        .stream().map(Shop::getId).collect(Collectors.toList()));
+    }
 
     public Result queryById(Long id) {
+        // 布隆过滤器判断不存在的id，直接返回，不访问Redis和DB
+        if(!bloomFilterRegistry.mightContain("shop", id)) {
+            return Result.fail("店铺不存在");
+        }
         Shop shop;
         // 基于逻辑过期
         shop = cacheClient.queryByLogical("hmdp:shop:cache:", id, Shop.class,
                 this::getById, "lock:shop");
         if(shop == null) {
-            // 基于互斥锁
-            shop = cacheClient.queryByLock("hmdp:shop:", id, Shop.class,
-                    this::getById, "lock:shop");
+            if("xfetch".equals(cacheStrategy)) {
+                // 基于概率提前刷新
+                shop = cacheClient.queryByXFetch("hmdp:shop:", id, Shop.class,
+                        this::getById, 30L, TimeUnit.MINUTES);
+            } else {
+                // 基于互斥锁
+                shop = cacheClient.queryByLock("hmdp:shop:", id, Shop.class,
+                        this::getById, "lock:shop");
+            }
 
             if(shop == null) {
                 return Result.fail("店铺不存在");
@@ -58,6 +119,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
+    /**
+     * 新增店铺，写入DB后加入布隆过滤器
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        save(shop);
+        bloomFilterRegistry.add("shop", shop.getId());
+        return Result.ok(shop.getId());
+    }
+
     /**
      * 先更新DB，后删除Cache，不需要更新cache
      */
@@ -70,9 +141,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
         // 1. 更新数据库
         updateById(shop);
-        // 2. 删除缓存
-        String shopID = "hmdp:shop" + id;
-        stringRedisTemplate.delete(shopID);
+        // 2. 事务提交后删除缓存（包括逻辑过期数据），同时通知所有节点删除一级缓存
+        cacheInvalidator.invalidate("hmdp:shop:", id);
         // 不需要更新缓存，等到读操作再更新
 
         return Result.ok();
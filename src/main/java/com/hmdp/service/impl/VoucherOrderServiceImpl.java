@@ -1,29 +1,73 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.VoucherOrderWriteResult;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.DelayedTaskQueue;
+import com.hmdp.utils.OrderStatusStore;
+import com.hmdp.utils.PartitionedExecutor;
+import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIDWorker;
+import com.hmdp.utils.SeckillBuyers;
+import com.hmdp.utils.SeckillLocalGate;
+import com.hmdp.utils.SeckillSegments;
+import com.hmdp.utils.SeckillStockLease;
+import com.hmdp.utils.SeckillVoucherMeta;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.core.NestedExceptionUtils;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -35,6 +79,8 @@ import java.util.concurrent.Executors;
  */
 @Service
 @Slf4j
+// 旧版本的秒杀key迁移完成后再启动订单消费者
+@DependsOn("seckillKeyMigration")
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
     @Resource
@@ -53,41 +99,165 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private RedisIDWorker redisIDWorker;
 
     @Resource
-    RedissonClient redissonClient;
+    private SeckillSegments seckillSegments;
+
+    @Resource
+    private SeckillLocalGate seckillLocalGate;
+
+    @Resource
+    private SeckillVoucherMeta seckillVoucherMeta;
+
+    @Resource
+    private SeckillStockLease seckillStockLease;
+
+    @Resource
+    private OrderStatusStore orderStatusStore;
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private static final DefaultRedisScript<Long> SEGMENT_SCRIPT;
+    private static final DefaultRedisScript<Long> SEGMENT_TAKE_SCRIPT;
+    private static final DefaultRedisScript<Long> CANCEL_SCRIPT;
 
     static {
         SECKILL_SCRIPT = new DefaultRedisScript<>();
         SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
         SECKILL_SCRIPT.setResultType(Long.class);
+
+        SEGMENT_SCRIPT = new DefaultRedisScript<>();
+        SEGMENT_SCRIPT.setLocation(new ClassPathResource("seckill_segment.lua"));
+        SEGMENT_SCRIPT.setResultType(Long.class);
+
+        SEGMENT_TAKE_SCRIPT = new DefaultRedisScript<>();
+        SEGMENT_TAKE_SCRIPT.setLocation(new ClassPathResource("seckill_segment_take.lua"));
+        SEGMENT_TAKE_SCRIPT.setResultType(Long.class);
+
+        CANCEL_SCRIPT = new DefaultRedisScript<>();
+        CANCEL_SCRIPT.setLocation(new ClassPathResource("seckill_cancel.lua"));
+        CANCEL_SCRIPT.setResultType(Long.class);
     }
 
-    // 阻塞队列
-    private BlockingQueue<VoucherOrder> orderTasks = new ArrayBlockingQueue<>(1024 * 1024);
+    // 本节点在消费者组中的名称，需在重启后保持不变，才能继续处理自己未确认的订单
+    @Value("${hmdp.seckill.stream.consumer:}")
+    private String consumerName;
+    @Value("${server.port:8080}")
+    private int serverPort;
+    // 其他消费者的待确认订单空闲超过该时间后被认领
+    @Value("${hmdp.seckill.stream.claim-idle-seconds:30}")
+    private long claimIdleSeconds;
+    // 超过投递次数的订单转入死信stream
+    @Value("${hmdp.seckill.stream.max-deliveries:5}")
+    private long maxDeliveries;
+    // 每批最多写入的订单数
+    @Value("${hmdp.seckill.batch.size:100}")
+    private int batchSize;
+    // 读到第一笔订单后，凑满一批最多等待的时间
+    @Value("${hmdp.seckill.batch.max-wait-millis:50}")
+    private long batchMaxWaitMillis;
+    // 写入DB的并行lane数量，按userId哈希分区
+    @Value("${hmdp.seckill.lanes:4}")
+    private int laneCount;
+    // 订单写入DB后超过该时间未支付则取消
+    @Value("${hmdp.seckill.unpaid.timeout-minutes:15}")
+    private long unpaidTimeoutMinutes;
+    @Value("${hmdp.seckill.unpaid.tick-millis:100}")
+    private long unpaidTickMillis;
+    @Value("${hmdp.seckill.unpaid.wheel-size:64}")
+    private int unpaidWheelSize;
+    // 本地时间轮只保存该时间内到期的订单
+    @Value("${hmdp.seckill.unpaid.horizon-seconds:60}")
+    private long unpaidHorizonSeconds;
+    @Value("${hmdp.seckill.unpaid.batch-size:200}")
+    private int unpaidBatchSize;
+    @Value("${hmdp.seckill.unpaid.retry-delay-seconds:10}")
+    private long unpaidRetryDelaySeconds;
 
-    // 线程池
+    // 线程池：读取stream并分发到各lane
     private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
 
+    // 长轮询超时后查询订单状态
+    private static final ScheduledExecutorService STATUS_WAIT_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "order-status-wait");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 按userId分区写入DB，同一用户的订单有序，不同用户并行
+    private PartitionedExecutor<StreamOrder> orderLanes;
+
+    // 未支付订单的超时取消
+    private DelayedTaskQueue unpaidOrders;
+
+    private volatile boolean running = true;
+
+    // Redis Cluster中订单stream、订单状态与优惠券的key不在同一slot，不能在下单脚本中写入
+    private boolean clusterMode;
+
     // 在类初始化完成后执行
     @PostConstruct
-    private void init(){
+    private void init() throws UnknownHostException {
+        if(StrUtil.isBlank(consumerName)) {
+            consumerName = InetAddress.getLocalHost().getHostName() + ":" + serverPort;
+        }
+        RedisConnectionFactory factory = stringRedisTemplate.getConnectionFactory();
+        clusterMode = factory instanceof LettuceConnectionFactory && ((LettuceConnectionFactory) factory).isClusterAware();
+        createGroupIfAbsent();
+        orderLanes = new PartitionedExecutor<>("seckill-order", laneCount, batchSize * 2, batchSize,
+                this::processBatch);
+        unpaidOrders = new DelayedTaskQueue("unpaid-order", RedisConstants.ORDER_TIMEOUT_KEY, stringRedisTemplate,
+                unpaidTickMillis, unpaidWheelSize, TimeUnit.SECONDS.toMillis(unpaidHorizonSeconds), unpaidBatchSize,
+                TimeUnit.SECONDS.toMillis(unpaidRetryDelaySeconds), this::cancelUnpaidOrders);
         SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
     }
 
+    @PreDestroy
+    private void shutdown() throws InterruptedException {
+        running = false;
+        SECKILL_ORDER_EXECUTOR.shutdown();
+        SECKILL_ORDER_EXECUTOR.awaitTermination(5, TimeUnit.SECONDS);
+        // 未处理完的订单留在待确认列表中，由其他节点或重启后认领
+        orderLanes.shutdown(5, TimeUnit.SECONDS);
+        unpaidOrders.shutdown();
+    }
+
+    /**
+     * 创建消费者组，stream不存在时一并创建
+     */
+    private void createGroupIfAbsent() {
+        byte[] rawKey = RedisConstants.SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8);
+        try {
+            stringRedisTemplate.execute((RedisCallback<String>) connection ->
+                    connection.streamCommands().xGroupCreate(rawKey, RedisConstants.SECKILL_ORDER_GROUP, ReadOffset.from("0"), true));
+        } catch(Exception e) {
+            // BUSYGROUP：消费者组已存在
+            if(!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
     /**
      *  线程任务
-     *  无限循环读取阻塞队列中的任务并调用handleVoucherOrder()来处理
+     *  1. 以消费者组读取stream中的新订单，凑满batchSize或等待batchMaxWaitMillis后按userId分发到各lane
+     *     lane批量写入DB后一次确认（XACK）
+     *  2. 定期认领空闲超过claimIdleSeconds的待确认订单（包括本节点重启前未确认的），重新处理
+     *  处理失败的订单不确认，留在待确认列表中等待认领重试
      */
     private class VoucherOrderHandler implements Runnable{
         @Override
         public void run() {
-            while(true){
+            long nextClaim = 0;
+            while(running){
                 try {
-                    VoucherOrder task = orderTasks.take();
-                    handleVoucherOrder(task);
+                    if(System.currentTimeMillis() >= nextClaim) {
+                        claimPending();
+                        nextClaim = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(claimIdleSeconds) / 2;
+                    }
+                    for(MapRecord<String, Object, Object> record : drain()) {
+                        dispatch(new StreamOrder(record.getId(), toOrder(record.getValue())));
+                    }
                 } catch(Exception e) {
                     log.error("处理订单异常", e);
+                    sleepQuietly();
                 }
 
             }
@@ -95,81 +265,659 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     }
 
     /**
-     * 加锁（Redisson）并将voucherorder写入DB中
+     * 阻塞等待新订单，读到后在batchMaxWaitMillis内继续读取，直到凑满batchSize
      */
-    private void handleVoucherOrder(VoucherOrder task) {
-        Long userID = task.getUserId();
-        RLock lock = redissonClient.getLock("order:" + userID);
-        // 注意参数
-        boolean isLock = lock.tryLock();
-        if(!isLock) {
-            log.error("不允许重复下单");
+    private List<MapRecord<String, Object, Object>> drain() {
+        List<MapRecord<String, Object, Object>> batch = new ArrayList<>(batchSize);
+        List<MapRecord<String, Object, Object>> records = read(batchSize, Duration.ofSeconds(2));
+        if(records == null || records.isEmpty()) {
+            return batch;
+        }
+        batch.addAll(records);
+        long deadline = System.currentTimeMillis() + batchMaxWaitMillis;
+        while(batch.size() < batchSize) {
+            long remaining = deadline - System.currentTimeMillis();
+            if(remaining <= 0) {
+                break;
+            }
+            records = read(batchSize - batch.size(), Duration.ofMillis(remaining));
+            if(records == null || records.isEmpty()) {
+                break;
+            }
+            batch.addAll(records);
+        }
+        return batch;
+    }
+
+    private List<MapRecord<String, Object, Object>> read(int count, Duration block) {
+        return stringRedisTemplate.opsForStream().read(
+                Consumer.from(RedisConstants.SECKILL_ORDER_GROUP, consumerName),
+                StreamReadOptions.empty().count(count).block(block),
+                StreamOffset.create(RedisConstants.SECKILL_ORDER_STREAM, ReadOffset.lastConsumed()));
+    }
+
+    /**
+     * 认领空闲的待确认订单并处理，超过最大投递次数的转入死信stream
+     */
+    private void claimPending() throws InterruptedException {
+        PendingMessages pending = stringRedisTemplate.opsForStream().pending(
+                RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP, Range.unbounded(), 100);
+        Duration minIdle = Duration.ofSeconds(claimIdleSeconds);
+        List<RecordId> ids = new ArrayList<>();
+        for(PendingMessage message : pending) {
+            if(message.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                continue;
+            }
+            ids.add(message.getId());
+            if(message.getTotalDeliveryCount() > maxDeliveries) {
+                log.error("订单超过最大投递次数, 转入死信: {}", message.getIdAsString());
+            }
+        }
+        if(ids.isEmpty()) {
             return;
         }
+        byte[] rawKey = RedisConstants.SECKILL_ORDER_STREAM.getBytes(StandardCharsets.UTF_8);
+        List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(rawKey, RedisConstants.SECKILL_ORDER_GROUP, consumerName,
+                        RedisStreamCommands.XClaimOptions.minIdle(minIdle).ids(ids)));
+        if(claimed == null) {
+            return;
+        }
+        Map<RecordId, Long> deliveries = new HashMap<>();
+        for(PendingMessage message : pending) {
+            deliveries.put(message.getId(), message.getTotalDeliveryCount());
+        }
+        for(ByteRecord record : claimed) {
+            Map<Object, Object> values = new HashMap<>();
+            record.getValue().forEach((k, v) ->
+                    values.put(new String(k, StandardCharsets.UTF_8), new String(v, StandardCharsets.UTF_8)));
+            if(deliveries.getOrDefault(record.getId(), 0L) > maxDeliveries) {
+                stringRedisTemplate.opsForStream().add(RedisConstants.SECKILL_ORDER_DEAD_STREAM, values);
+                stringRedisTemplate.opsForStream().acknowledge(RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP, record.getId());
+                VoucherOrder order = toOrder(values);
+                orderStatusStore.save(Collections.singletonMap(order.getId(),
+                        OrderStatusStore.record(OrderStatusStore.FAILED, order.getUserId(), "订单处理失败")));
+                continue;
+            }
+            dispatch(new StreamOrder(record.getId(), toOrder(values)));
+        }
+    }
+
+    private void dispatch(StreamOrder order) throws InterruptedException {
+        orderLanes.submit(Long.hashCode(order.order.getUserId()), order);
+    }
+
+    /**
+     * 订单id为十进制（id）；旧版本lua脚本写入的为十六进制（hexId）
+     */
+    private static VoucherOrder toOrder(Map<Object, Object> values) {
+        VoucherOrder order = BeanUtil.fillBeanWithMap(values, new VoucherOrder(), true);
+        Object hexId = values.get("hexId");
+        if(hexId != null) {
+            order.setId(Long.parseUnsignedLong(hexId.toString(), 16));
+        }
+        return order;
+    }
+
+    /**
+     * 由lane线程调用：在一个事务中批量写入DB，成功后一次确认
+     * 批量写入失败时逐条写入，只确认写入成功、订单已存在、因库存不足被拒绝或重复下单的
+     * 确认前将写入的订单加入超时取消的zset并写入订单状态，失败时不确认，认领重新处理时再写入
+     */
+    private void processBatch(List<StreamOrder> orders) {
+        List<RecordId> done = new ArrayList<>(orders.size());
+        List<VoucherOrder> voucherOrders = new ArrayList<>(orders.size());
+        for(StreamOrder order : orders) {
+            voucherOrders.add(order.order);
+        }
+        List<VoucherOrder> persisted = new ArrayList<>(orders.size());
+        VoucherOrderWriteResult result = new VoucherOrderWriteResult();
+        try {
+            result.addAll(voucherOrderService.createVoucherOrders(voucherOrders));
+            for(StreamOrder order : orders) {
+                done.add(order.id);
+            }
+            persisted.addAll(voucherOrders);
+        } catch(Exception e) {
+            log.error("批量写入订单失败, 逐条重试, 数量: {}", orders.size(), e);
+            for(StreamOrder order : orders) {
+                try {
+                    result.addAll(handleVoucherOrder(order.order));
+                    done.add(order.id);
+                    persisted.add(order.order);
+                } catch(Exception ex) {
+                    log.error("订单写入失败, 等待重试: {}", order.id, ex);
+                }
+            }
+        }
+        if(!done.isEmpty()) {
+            List<VoucherOrder> rejected = result.getRejected();
+            List<VoucherOrder> duplicated = result.getDuplicated();
+            persisted.removeAll(rejected);
+            persisted.removeAll(duplicated);
+            long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(unpaidTimeoutMinutes);
+            Map<String, Long> deadlines = new HashMap<>(persisted.size() * 2);
+            Map<Long, String> statuses = new HashMap<>(done.size() * 2);
+            for(VoucherOrder order : persisted) {
+                deadlines.put(order.getId().toString(), deadline);
+                statuses.put(order.getId(), OrderStatusStore.record(OrderStatusStore.PERSISTED, order.getUserId(), null));
+            }
+            for(VoucherOrder order : rejected) {
+                statuses.put(order.getId(), OrderStatusStore.record(OrderStatusStore.FAILED, order.getUserId(), "库存不足"));
+            }
+            for(VoucherOrder order : duplicated) {
+                statuses.put(order.getId(), OrderStatusStore.record(OrderStatusStore.FAILED, order.getUserId(), "重复下单"));
+            }
+            unpaidOrders.schedule(deadlines);
+            orderStatusStore.save(statuses);
+            stringRedisTemplate.opsForStream().acknowledge(RedisConstants.SECKILL_ORDER_STREAM,
+                    RedisConstants.SECKILL_ORDER_GROUP, done.toArray(new RecordId[0]));
+        }
+    }
+
+    private static void sleepQuietly() {
         try {
-            // 在DB创建订单
-            voucherOrderService.createVoucherOrder(task);
-        } finally {
-            lock.unlock();
+            Thread.sleep(100);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * 再进行一次判断（是否多余？），使用save()将定案的呢保存到DB
+     * 将voucherorder写入DB中
+     * 同一用户的订单在同一个lane中顺序处理，不再需要分布式锁；
+     * 其他节点认领后重复处理的订单由INSERT IGNORE忽略，视为已完成
+     *
+     * @return 因库存不足或重复下单未写入的订单
      */
-    @Transactional
-    public void createVoucherOrder(VoucherOrder task) {
-        // 一人一单
-        Long userID = task.getUserId();
-        Long voucherId = task.getVoucherId();
-
-        Long count = query().eq("user_id", userID).eq("voucher_id", voucherId).count();
-        if(count > 0) {
-            log.error("购买数量限制");
+    private VoucherOrderWriteResult handleVoucherOrder(VoucherOrder task) {
+        return voucherOrderService.createVoucherOrder(task);
+    }
+
+    /**
+     * 调整写入DB的lane数量
+     */
+    @Override
+    public Result resizeOrderLanes(int count) {
+        if(count <= 0 || count > 64) {
+            return Result.fail("lane数量应在1-64之间");
+        }
+        orderLanes.resize(count);
+        return Result.ok();
+    }
+
+    /**
+     * 从Redis查询异步订单的处理结果，不访问DB
+     * waitSeconds大于0且订单仍在排队时长轮询：状态变化或超时后完成，不占用调用线程
+     */
+    @Override
+    public CompletableFuture<Result> queryOrderStatus(Long orderId, long waitSeconds) {
+        Long userID = UserHolder.getUser().getId();
+        long wait = Math.min(Math.max(waitSeconds, 0), MAX_STATUS_WAIT_SECONDS);
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        Runnable onChange = () -> result.complete(toStatusResult(orderStatusStore.get(orderId, userID)));
+        if(wait > 0) {
+            // 先注册再查询，查询与注册之间的状态变化不会丢失
+            orderStatusStore.await(orderId, onChange);
+            ScheduledFuture<?> timeout = STATUS_WAIT_EXECUTOR.schedule(onChange, wait, TimeUnit.SECONDS);
+            result.whenComplete((r, e) -> {
+                orderStatusStore.cancelAwait(orderId, onChange);
+                timeout.cancel(false);
+            });
+        }
+        Map<String, Object> status = orderStatusStore.get(orderId, userID);
+        if(wait == 0 || status == null || OrderStatusStore.isFinal(status)) {
+            result.complete(toStatusResult(status));
+        }
+        return result;
+    }
+
+    private static Result toStatusResult(Map<String, Object> status) {
+        return status == null ? Result.fail("订单不存在或已过期") : Result.ok(status);
+    }
+
+    /**
+     * 超时未支付的订单：DB中取消并归还库存，再归还Redis中的库存和购买资格
+     * Redis归还失败时DB已提交，不再重试，只记录日志
+     */
+    private void cancelUnpaidOrders(List<String> ids) {
+        List<Long> orderIds = ids.stream().map(Long::valueOf).collect(Collectors.toList());
+        List<VoucherOrder> cancelled = voucherOrderService.cancelOrders(orderIds);
+        if(cancelled.isEmpty()) {
             return;
         }
+        log.info("取消超时未支付订单, 数量: {}", cancelled.size());
+        Map<Long, String> statuses = new HashMap<>(cancelled.size() * 2);
+        for(VoucherOrder order : cancelled) {
+            statuses.put(order.getId(), OrderStatusStore.record(OrderStatusStore.CANCELLED, order.getUserId(), "超时未支付"));
+        }
+        orderStatusStore.save(statuses);
+        try {
+            restoreSeckillStock(cancelled);
+        } catch(Exception e) {
+            log.error("归还Redis库存失败, 订单: {}", cancelled.stream().map(VoucherOrder::getId)
+                    .collect(Collectors.toList()), e);
+        }
+    }
 
-        // 4. 扣除库存
-        boolean flag = seckillVoucherService.update().setSql("stock = stock - 1")
+    /**
+     * 在一个事务中将未支付的订单改为已取消，并按优惠券批量归还库存
+     * 以for update读取，与支付并发时只取消仍未支付的订单
+     *
+     * @return 被取消的订单
+     */
+    @Transactional
+    public List<VoucherOrder> cancelOrders(List<Long> orderIds) {
+        // 1：未支付
+        List<VoucherOrder> unpaid = query().select("id", "user_id", "voucher_id")
+                .in("id", orderIds)
+                .eq("status", 1)
+                .last("for update")
+                .list();
+        if(unpaid.isEmpty()) {
+            return unpaid;
+        }
+        // 4：已取消，buy_seq改为订单id，不再占用一人一单的唯一索引
+        update().set("status", 4)
+                .setSql("buy_seq = id")
+                .in("id", unpaid.stream().map(VoucherOrder::getId).collect(Collectors.toList()))
+                .eq("status", 1)
+                .update();
+        Map<Long, Long> counts = unpaid.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, Collectors.counting()));
+        counts.forEach((voucherId, count) -> seckillVoucherService.update()
+                .setSql("stock = stock + " + count)
                 .eq("voucher_id", voucherId)
-                // 判断库存是否相等，该做法存在库存遗留问题
-                // .eq("stock", stock)
+                .update());
+        return unpaid;
+    }
 
-                // 判断库存>0
-                .gt("stock", 0)
-                .update();
-        if(!flag) {
-            log.error("库存不足");
-            return;
+    /**
+     * 按优惠券和段分组，每组执行一次脚本归还库存并撤销购买资格，然后清除售罄标记和本节点的已购买记录
+     * 分段库存的订单归还到用户所属的段
+     */
+    private void restoreSeckillStock(List<VoucherOrder> cancelled) {
+        Map<Long, Map<Integer, List<String>>> groups = new LinkedHashMap<>();
+        for(VoucherOrder order : cancelled) {
+            int segments = seckillSegments.segments(order.getVoucherId());
+            int segment = segments > 0 ? SeckillSegments.home(order.getUserId(), segments) : -1;
+            groups.computeIfAbsent(order.getVoucherId(), id -> new LinkedHashMap<>())
+                    .computeIfAbsent(segment, s -> new ArrayList<>())
+                    .add(order.getUserId().toString());
         }
+        groups.forEach((voucherId, bySegment) -> {
+            String limit = String.valueOf(seckillVoucherMeta.limit(voucherId));
+            String encoding = seckillVoucherMeta.buyerEncoding(voucherId);
+            bySegment.forEach((segment, users) -> {
+                String orderKey = segment < 0 ? SeckillSegments.orderKey(voucherId)
+                        : SeckillSegments.orderKey(voucherId, segment);
+                List<String> keys = new ArrayList<>(users.size() + 4);
+                if(segment < 0) {
+                    keys.add(SeckillSegments.stockKey(voucherId));
+                    keys.add(orderKey);
+                    keys.add(SeckillVoucherMeta.countKey(voucherId));
+                } else {
+                    keys.add(SeckillSegments.stockKey(voucherId, segment));
+                    keys.add(orderKey);
+                    keys.add(SeckillVoucherMeta.countKey(voucherId, segment));
+                }
+                keys.add(SeckillBuyers.countKey(orderKey));
+                if(SeckillBuyers.BITMAP.equals(encoding)) {
+                    for(String user : users) {
+                        keys.add(SeckillBuyers.chunkKey(orderKey, Long.parseLong(user)));
+                    }
+                }
+                List<String> args = new ArrayList<>(users.size() + 2);
+                args.add(limit);
+                args.add(encoding);
+                args.addAll(users);
+                stringRedisTemplate.execute(CANCEL_SCRIPT, keys, args.toArray());
+            });
+            seckillLocalGate.clearSoldOut(voucherId);
+        });
+        for(VoucherOrder order : cancelled) {
+            seckillLocalGate.forgetBought(order.getVoucherId(), order.getUserId());
+        }
+    }
+
+    /**
+     * 各lane的积压和延迟，消费者组中待确认的订单数，以及超时取消的状态
+     */
+    @Override
+    public Result queryOrderLanes() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("laneCount", orderLanes.laneCount());
+        stats.put("lanes", orderLanes.stats());
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(
+                RedisConstants.SECKILL_ORDER_STREAM, RedisConstants.SECKILL_ORDER_GROUP);
+        stats.put("pending", pending == null ? 0 : pending.getTotalPendingMessages());
+        stats.put("unpaidTimeout", unpaidOrders.stats());
+        stats.put("stockLease", seckillStockLease.stats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 写入单个订单，与批量写入相同
+     *
+     * @return 因库存不足或重复下单未写入时包含该订单
+     */
+    @Transactional
+    public VoucherOrderWriteResult createVoucherOrder(VoucherOrder task) {
+        return createVoucherOrders(Collections.singletonList(task));
+    }
+
+    /**
+     * 批量写入订单，不加锁，由唯一索引(user_id, voucher_id, buy_seq)和主键保证幂等
+     * 1. 按优惠券分组，批内去重：一人一单时按用户（buy_seq为0），限购数量大于1时按订单id（buy_seq为订单id）
+     * 2. 按主键查询一次，已存在的是重复投递的订单，此前已扣减库存，视为已写入，不参与扣减
+     * 3. 每张优惠券对其余订单扣减一次库存（stock >= n），库存不足时只写入剩余库存数量的订单
+     * 4. 以INSERT IGNORE写入，被忽略的订单归还库存；其中主键仍不存在的与同一用户的其他订单冲突，未写入
+     *
+     * @return 因库存不足或重复下单未写入的订单
+     */
+    @Transactional
+    public VoucherOrderWriteResult createVoucherOrders(List<VoucherOrder> orders) {
+        Map<Long, List<VoucherOrder>> byVoucher = new LinkedHashMap<>();
+        for(VoucherOrder order : orders) {
+            byVoucher.computeIfAbsent(order.getVoucherId(), id -> new ArrayList<>()).add(order);
+        }
+
+        VoucherOrderWriteResult result = new VoucherOrderWriteResult();
+        for(Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            Long voucherId = entry.getKey();
+            boolean onePerUser = seckillVoucherMeta.limit(voucherId) <= 1;
+            Map<Long, VoucherOrder> pending = new LinkedHashMap<>();
+            for(VoucherOrder order : entry.getValue()) {
+                order.setBuySeq(onePerUser ? 0L : order.getId());
+                VoucherOrder kept = pending.putIfAbsent(onePerUser ? order.getUserId() : order.getId(), order);
+                // 同一订单重复投递时与保留的订单相同，不是重复下单
+                if(kept != null && !kept.getId().equals(order.getId())) {
+                    result.getDuplicated().add(order);
+                }
+            }
+
+            List<VoucherOrder> candidates = new ArrayList<>(pending.values());
+            Set<Long> existing = existingIds(candidates);
+            candidates.removeIf(order -> existing.contains(order.getId()));
+            if(candidates.isEmpty()) {
+                continue;
+            }
+
+            int count = candidates.size();
+            if(!decreaseStock(voucherId, count)) {
+                SeckillVoucher voucher = seckillVoucherService.getById(voucherId);
+                int remaining = voucher == null ? 0 : voucher.getStock();
+                log.error("库存不足, voucherId: {}, 订单数: {}, 剩余库存: {}", voucherId, count, remaining);
+                count = remaining > 0 && decreaseStock(voucherId, remaining) ? remaining : 0;
+            }
+            result.getRejected().addAll(candidates.subList(count, candidates.size()));
+            if(count == 0) {
+                continue;
+            }
 
-        save(task);
+            List<VoucherOrder> toSave = candidates.subList(0, count);
+            int inserted = getBaseMapper().insertIgnoreBatch(toSave);
+            if(inserted < count) {
+                log.warn("忽略已存在的订单, voucherId: {}, 数量: {}", voucherId, count - inserted);
+                seckillVoucherService.update()
+                        .setSql("stock = stock + " + (count - inserted))
+                        .eq("voucher_id", voucherId)
+                        .update();
+                result.getDuplicated().addAll(notPersisted(toSave));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * INSERT IGNORE后主键仍不存在的订单，即与同一用户其他订单的唯一索引冲突而被忽略的
+     */
+    private List<VoucherOrder> notPersisted(List<VoucherOrder> orders) {
+        Set<Long> existing = existingIds(orders);
+        return orders.stream().filter(order -> !existing.contains(order.getId())).collect(Collectors.toList());
+    }
 
+    /**
+     * 已写入DB的订单id
+     */
+    private Set<Long> existingIds(List<VoucherOrder> orders) {
+        List<Long> ids = orders.stream().map(VoucherOrder::getId).collect(Collectors.toList());
+        return query().select("id").in("id", ids).list().stream()
+                .map(VoucherOrder::getId)
+                .collect(Collectors.toSet());
+    }
+
+    private boolean decreaseStock(Long voucherId, int count) {
+        return seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .eq("voucher_id", voucherId)
+                .ge("stock", count)
+                .update();
     }
 
     /**
-     * 使用Redisson分布式锁（可重入锁）处理一人一单、解决炒卖问题
-     * 并解决锁误删问题：在unlock前判断value
+     * lua脚本在Redis中原子地判断库存和一人一单，订单异步写入DB
+     * 写入DB时按userId分区，同一用户的订单在同一个lane中顺序处理，不需要分布式锁
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
         // 1. 执行lua脚本，判断用户是否具有下单资格(return 0)
+        // 具有资格时，脚本在同一原子操作中将订单写入stream，由消费者组异步写入DB
         Long userID = UserHolder.getUser().getId();
-        Long result = stringRedisTemplate.execute(SECKILL_SCRIPT, Collections.emptyList(),
-                voucherId.toString(), userID.toString());
-        if(result != 0) {
-            return Result.fail(result == 1 ? "库存不足" : "超过购买限制");
+        // 已知售罄或已购买的请求直接返回，不访问Redis
+        if(seckillLocalGate.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        if(seckillLocalGate.hasBought(voucherId, userID)) {
+            return Result.fail("超过购买限制");
         }
 
-        // 2.将订单信息保存到队列，异步执行下单
+        int segments = seckillSegments.segments(voucherId);
+        if(segments > 0) {
+            return seckillBySegments(voucherId, userID, segments);
+        }
+        if(seckillStockLease.isActive(voucherId)) {
+            return seckillByLease(voucherId, userID);
+        }
+        // 订单id从本节点租用的ID段中分配，不访问Redis；脚本同时判断秒杀时间、限购并写入订单，一次往返完成
+        // （RedisTemplate以EVALSHA执行，脚本未加载时才发送脚本内容）
         Long orderID = redisIDWorker.nextID("order");
-        VoucherOrder order = new VoucherOrder();
-        order.setId(orderID);
-        order.setVoucherId(voucherId);
-        order.setUserId(userID);
+        int status = executeSeckillScript(voucherId, userID, orderID, false);
+        if(status != 0) {
+            return fail(voucherId, userID, status);
+        }
+        return succeed(voucherId, userID, orderID, false);
+    }
 
-        orderTasks.add(order);
+    /**
+     * 以本节点租用的库存秒杀：库存在本地扣减，脚本只判断秒杀时间、限购并写入订单
+     * 脚本拒绝或执行失败时放回本地库存；脚本返回已结束时归还全部租用的库存
+     */
+    private Result seckillByLease(Long voucherId, Long userID) {
+        if(!seckillStockLease.tryAcquire(voucherId)) {
+            return Result.fail("库存不足");
+        }
+        Long orderID = redisIDWorker.nextID("order");
+        int status;
+        try {
+            status = executeSeckillScript(voucherId, userID, orderID, true);
+        } catch(RuntimeException e) {
+            seckillStockLease.release(voucherId);
+            throw e;
+        }
+        if(status != 0) {
+            seckillStockLease.release(voucherId);
+            if(status == 4) {
+                seckillStockLease.returnLease(voucherId);
+            }
+            return fail(voucherId, userID, status);
+        }
+        return succeed(voucherId, userID, orderID, true);
+    }
 
+    /**
+     * 执行下单脚本，所有key通过KEYS传入，优惠券的key使用同一个hash tag
+     * 非Cluster时同时传入订单stream和订单状态key，在同一原子操作中写入订单
+     */
+    private int executeSeckillScript(Long voucherId, Long userID, Long orderID, boolean leased) {
+        String orderKey = SeckillSegments.orderKey(voucherId);
+        List<String> keys = new ArrayList<>(8);
+        keys.add(SeckillSegments.stockKey(voucherId));
+        keys.add(orderKey);
+        keys.add(SeckillVoucherMeta.metaKey(voucherId));
+        keys.add(SeckillVoucherMeta.countKey(voucherId));
+        keys.addAll(SeckillBuyers.keys(orderKey, userID));
+        if(!clusterMode) {
+            keys.add(RedisConstants.SECKILL_ORDER_STREAM);
+            keys.add(OrderStatusStore.key(orderID));
+        }
+        Long status = stringRedisTemplate.execute(SECKILL_SCRIPT, keys,
+                userID.toString(), voucherId.toString(), orderID.toString(),
+                leased ? "1" : "0", String.valueOf(orderStatusStore.ttlSeconds()));
+        return status == null ? 1 : status.intValue();
+    }
+
+    /**
+     * 脚本返回成功；Cluster中由这里写入订单，写入失败时归还库存和购买资格
+     */
+    private Result succeed(Long voucherId, Long userID, Long orderID, boolean leased) {
+        if(clusterMode) {
+            try {
+                enqueueOrder(voucherId, userID, orderID);
+            } catch(RuntimeException e) {
+                VoucherOrder order = new VoucherOrder().setId(orderID).setUserId(userID).setVoucherId(voucherId);
+                restoreSeckillStock(Collections.singletonList(order));
+                throw e;
+            }
+        }
+        if(seckillVoucherMeta.limit(voucherId) <= 1) {
+            seckillLocalGate.markBought(voucherId, userID);
+        }
         return Result.ok(orderID);
     }
+
+    /**
+     * 写入排队中的状态和订单stream；先写入状态，避免覆盖消费者写入的结果
+     */
+    private void enqueueOrder(Long voucherId, Long userID, Long orderID) {
+        Map<String, String> order = new HashMap<>();
+        order.put("userId", userID.toString());
+        order.put("voucherId", voucherId.toString());
+        order.put("id", orderID.toString());
+        stringRedisTemplate.opsForValue().set(OrderStatusStore.key(orderID),
+                OrderStatusStore.record(OrderStatusStore.QUEUED, userID, null),
+                orderStatusStore.ttlSeconds(), TimeUnit.SECONDS);
+        stringRedisTemplate.opsForStream().add(
+                StreamRecords.string(order).withStreamKey(RedisConstants.SECKILL_ORDER_STREAM));
+    }
+
+    /**
+     * 脚本返回的失败原因：1 库存不足  2 超过限购  3 秒杀尚未开始  4 秒杀已经结束
+     */
+    private Result fail(Long voucherId, Long userID, int status) {
+        switch(status) {
+            case 1:
+                seckillLocalGate.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            case 2:
+                seckillLocalGate.markBought(voucherId, userID);
+                return Result.fail("超过购买限制");
+            case 3:
+                return Result.fail("秒杀尚未开始");
+            default:
+                return Result.fail("秒杀已经结束");
+        }
+    }
+
+    /**
+     * 分段库存的秒杀
+     * 1. 在home段判断秒杀时间、限购并扣减库存；home段库存不足时保留购买资格，依次从后续的段扣减
+     * 2. 所有段都不足时撤销购买资格
+     * 3. 各段位于不同slot，无法在脚本中写入stream，由这里写入；写入失败时归还库存和购买资格
+     */
+    private Result seckillBySegments(Long voucherId, Long userID, int segments) {
+        int home = SeckillSegments.home(userID, segments);
+        int limit = seckillVoucherMeta.limit(voucherId);
+        String orderKey = SeckillSegments.orderKey(voucherId, home);
+        List<String> keys = new ArrayList<>(6);
+        keys.add(SeckillSegments.stockKey(voucherId, home));
+        keys.add(orderKey);
+        keys.add(SeckillVoucherMeta.metaKey(voucherId, home));
+        keys.add(SeckillVoucherMeta.countKey(voucherId, home));
+        keys.addAll(SeckillBuyers.keys(orderKey, userID));
+        Long result = stringRedisTemplate.execute(SEGMENT_SCRIPT, keys, userID.toString());
+        int status = result == null ? 1 : result.intValue();
+        if(status != 0 && status != 5) {
+            return fail(voucherId, userID, status);
+        }
+
+        int supplier = home;
+        if(status == 5) {
+            supplier = -1;
+            for(int i = 1; i < segments; i++) {
+                int segment = (home + i) % segments;
+                Long taken = stringRedisTemplate.execute(SEGMENT_TAKE_SCRIPT,
+                        Collections.singletonList(SeckillSegments.stockKey(voucherId, segment)));
+                if(taken != null && taken == 0) {
+                    supplier = segment;
+                    break;
+                }
+            }
+            if(supplier < 0) {
+                releaseSegment(voucherId, userID, home, limit);
+                seckillLocalGate.markSoldOut(voucherId);
+                return Result.fail("库存不足");
+            }
+        }
+
+        Long orderID = redisIDWorker.nextID("order");
+        try {
+            enqueueOrder(voucherId, userID, orderID);
+        } catch(RuntimeException e) {
+            stringRedisTemplate.opsForValue().increment(SeckillSegments.stockKey(voucherId, supplier));
+            releaseSegment(voucherId, userID, home, limit);
+            throw e;
+        }
+        if(limit <= 1) {
+            seckillLocalGate.markBought(voucherId, userID);
+        }
+        return Result.ok(orderID);
+    }
+
+    /**
+     * 撤销home段中保留的购买资格
+     */
+    private void releaseSegment(Long voucherId, Long userID, int home, int limit) {
+        String user = userID.toString();
+        if(limit > 1) {
+            Long left = stringRedisTemplate.opsForHash().increment(SeckillVoucherMeta.countKey(voucherId, home), user, -1);
+            if(left != null && left > 0) {
+                return;
+            }
+            stringRedisTemplate.opsForHash().delete(SeckillVoucherMeta.countKey(voucherId, home), user);
+        }
+        String orderKey = SeckillSegments.orderKey(voucherId, home);
+        if(seckillVoucherMeta.bitmapBuyers(voucherId)) {
+            Boolean bought = stringRedisTemplate.opsForValue().setBit(
+                    SeckillBuyers.chunkKey(orderKey, userID), SeckillBuyers.offset(userID), false);
+            if(Boolean.TRUE.equals(bought)) {
+                stringRedisTemplate.opsForValue().decrement(SeckillBuyers.countKey(orderKey));
+            }
+            return;
+        }
+        stringRedisTemplate.opsForSet().remove(orderKey, user);
+    }
+
+    /**
+     * stream中的一笔订单
+     */
+    private static class StreamOrder {
+        private final RecordId id;
+        private final VoucherOrder order;
+
+        private StreamOrder(RecordId id, VoucherOrder order) {
+            this.id = id;
+            this.order = order;
+        }
+    }
 }
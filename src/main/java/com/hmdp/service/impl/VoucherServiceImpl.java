@@ -7,7 +7,8 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
-import org.springframework.data.redis.core.StringRedisTemplate;
+import com.hmdp.utils.SeckillSegments;
+import com.hmdp.utils.SeckillVoucherMeta;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -28,7 +29,9 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SeckillSegments seckillSegments;
+    @Resource
+    private SeckillVoucherMeta seckillVoucherMeta;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
@@ -51,9 +54,12 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        // 将优惠券(优惠券id和库存)保存到redis中
-        stringRedisTemplate.opsForValue().set("seckill:stock:" + voucher.getId().toString(),
-                voucher.getStock().toString());
+        // 将秒杀时间和限购数量保存到redis中，由lua脚本判断；先于库存写入，脚本读到库存时元数据已存在
+        int segments = seckillSegments.plan(voucher.getStock());
+        seckillVoucherMeta.publish(voucher.getId(), voucher.getStock(), voucher.getBeginTime(),
+                voucher.getEndTime(), voucher.getBuyLimit(), segments);
+        // 将优惠券(优惠券id和库存)保存到redis中，库存较大时分段
+        seckillSegments.initStock(voucher.getId(), voucher.getStock());
 
 
     }
@@ -0,0 +1,93 @@
+package com.hmdp.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 二进制编解码器的基类，提供可空字段的读写
+ * 每个字段先写一个标记字节（0为null），时间以epoch毫秒存储
+ * 字段顺序即格式，新增字段只能追加在末尾
+ */
+public abstract class BinaryCacheCodec<T> implements CacheCodec<T> {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    protected static void writeLong(DataOutput out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeLong(value);
+        }
+    }
+
+    protected static Long readLong(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    protected static void writeInt(DataOutput out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    protected static Integer readInt(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    protected static void writeDouble(DataOutput out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeDouble(value);
+        }
+    }
+
+    protected static Double readDouble(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+    protected static void writeBool(DataOutput out, Boolean value) throws IOException {
+        out.writeByte(value == null ? 0 : (value ? 2 : 1));
+    }
+
+    protected static Boolean readBool(DataInput in) throws IOException {
+        byte b = in.readByte();
+        return b == 0 ? null : b == 2;
+    }
+
+    /**
+     * 字符串以长度+UTF-8字节存储，长度-1表示null，不受writeUTF的64KB限制
+     */
+    protected static void writeString(DataOutput out, String value) throws IOException {
+        if(value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    protected static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if(length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    protected static void writeTime(DataOutput out, LocalDateTime value) throws IOException {
+        writeLong(out, value == null ? null : value.atZone(ZONE).toInstant().toEpochMilli());
+    }
+
+    protected static LocalDateTime readTime(DataInput in) throws IOException {
+        Long millis = readLong(in);
+        return millis == null ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZONE);
+    }
+}
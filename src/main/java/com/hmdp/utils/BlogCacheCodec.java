@@ -0,0 +1,59 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Blog;
+import org.springframework.stereotype.Component;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Blog的二进制编解码器
+ * isLike与当前登录用户相关，不写入缓存
+ */
+@Component
+public class BlogCacheCodec extends BinaryCacheCodec<Blog> {
+
+    @Override
+    public byte id() {
+        return 2;
+    }
+
+    @Override
+    public Class<Blog> type() {
+        return Blog.class;
+    }
+
+    @Override
+    public void write(Blog blog, DataOutput out) throws IOException {
+        writeLong(out, blog.getId());
+        writeLong(out, blog.getShopId());
+        writeLong(out, blog.getUserId());
+        writeString(out, blog.getIcon());
+        writeString(out, blog.getName());
+        writeString(out, blog.getTitle());
+        writeString(out, blog.getImages());
+        writeString(out, blog.getContent());
+        writeInt(out, blog.getLiked());
+        writeInt(out, blog.getComments());
+        writeTime(out, blog.getCreateTime());
+        writeTime(out, blog.getUpdateTime());
+    }
+
+    @Override
+    public Blog read(DataInput in) throws IOException {
+        return new Blog()
+                .setId(readLong(in))
+                .setShopId(readLong(in))
+                .setUserId(readLong(in))
+                .setIcon(readString(in))
+                .setName(readString(in))
+                .setTitle(readString(in))
+                .setImages(readString(in))
+                .setContent(readString(in))
+                .setLiked(readInt(in))
+                .setComments(readInt(in))
+                .setCreateTime(readTime(in))
+                .setUpdateTime(readTime(in));
+    }
+}
@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 防止缓存穿透的布隆过滤器
+ * 1. 每个过滤器对应一张表的id，启动时按id顺序分批读取DB构建，未构建完成前一律放行
+ * 2. 新增数据时写入本节点，并通过pub/sub通知其他节点
+ * 3. 定期从DB重建并替换，清理已删除的id，也补上丢失的通知
+ */
+@Slf4j
+@Component
+public class BloomFilterRegistry {
+    // 每批读取的id数量，chunkLoader应按此数量查询
+    public static final int CHUNK_SIZE = 1000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final double fpp;
+
+    private final Map<String, Holder> holders = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "bloom-filter-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long syncMinutes;
+
+    public BloomFilterRegistry(StringRedisTemplate stringRedisTemplate,
+                               @Value("${hmdp.bloom.fpp:0.01}") double fpp,
+                               @Value("${hmdp.bloom.sync-minutes:10}") long syncMinutes) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.fpp = fpp;
+        this.syncMinutes = syncMinutes;
+    }
+
+    /**
+     * 注册过滤器，立即在后台构建，之后定期重建
+     *
+     * @param name        过滤器名称，如shop、blog
+     * @param counter     查询当前数据量，用于确定过滤器大小
+     * @param chunkLoader 根据上一批最大的id，按id升序查询下一批id
+     */
+    public void register(String name, Supplier<Long> counter, Function<Long, List<Long>> chunkLoader) {
+        Holder holder = new Holder(counter, chunkLoader);
+        holders.put(name, holder);
+        scheduler.scheduleWithFixedDelay(() -> rebuild(name, holder), 0, syncMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 判断id是否可能存在；过滤器未注册或未构建完成时返回true
+     */
+    public boolean mightContain(String name, long id) {
+        Holder holder = holders.get(name);
+        if(holder == null) {
+            return true;
+        }
+        BloomFilter filter = holder.current;
+        return filter == null || filter.mightContain(id);
+    }
+
+    /**
+     * 新增数据后调用，需在DB写入成功后调用
+     */
+    public void add(String name, long id) {
+        addLocal(name, id);
+        stringRedisTemplate.convertAndSend(RedisConstants.BLOOM_ADD_CHANNEL, name + ":" + id);
+    }
+
+    /**
+     * 仅写入本节点，由新增消息的监听器调用，消息格式为name:id
+     */
+    public void addLocal(String message) {
+        int index = message.lastIndexOf(':');
+        if(index <= 0) {
+            return;
+        }
+        addLocal(message.substring(0, index), Long.parseLong(message.substring(index + 1)));
+    }
+
+    private void addLocal(String name, long id) {
+        Holder holder = holders.get(name);
+        if(holder == null) {
+            return;
+        }
+        synchronized(holder) {
+            if(holder.current != null) {
+                holder.current.put(id);
+            }
+            // 重建过程中新增的id同时写入新过滤器，避免被遗漏
+            if(holder.building != null) {
+                holder.building.put(id);
+            }
+        }
+    }
+
+    private void rebuild(String name, Holder holder) {
+        try {
+            long count = holder.counter.get();
+            // 预留增长空间
+            BloomFilter filter = BloomFilter.create(Math.max(count * 2, 1024), fpp);
+            synchronized(holder) {
+                holder.building = filter;
+            }
+            long lastId = 0;
+            long loaded = 0;
+            while(true) {
+                List<Long> ids = holder.chunkLoader.apply(lastId);
+                if(ids == null || ids.isEmpty()) {
+                    break;
+                }
+                for(Long id : ids) {
+                    filter.put(id);
+                }
+                loaded += ids.size();
+                lastId = ids.get(ids.size() - 1);
+                if(ids.size() < CHUNK_SIZE) {
+                    break;
+                }
+            }
+            synchronized(holder) {
+                holder.current = filter;
+                holder.building = null;
+            }
+            log.info("布隆过滤器[{}]构建完成, id数量: {}", name, loaded);
+        } catch(Exception e) {
+            synchronized(holder) {
+                holder.building = null;
+            }
+            log.error("布隆过滤器[{}]构建失败", name, e);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private static class Holder {
+        private final Supplier<Long> counter;
+        private final Function<Long, List<Long>> chunkLoader;
+        private volatile BloomFilter current;
+        private volatile BloomFilter building;
+
+        private Holder(Supplier<Long> counter, Function<Long, List<Long>> chunkLoader) {
+            this.counter = counter;
+            this.chunkLoader = chunkLoader;
+        }
+    }
+}
@@ -1,17 +1,24 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.dto.RedisDataDTO;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
@@ -20,12 +27,121 @@ import java.util.function.Function;
 public class CacheClient {
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    // 一级缓存，key为缓存前缀
+    private final Map<String, LocalCache> localCaches = new ConcurrentHashMap<>();
+
+    // 合并同一key的并发加载
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    // 等待其他节点重建的最长时间，与锁的ttl一致
+    private static final long LOCK_WAIT_MILLIS = 10_000L;
+
+    // 与SimpleRedisLock相同，只删除自己持有的锁
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    static {
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    // 逻辑过期数据的重建线程池
+    private final CacheRebuildExecutor rebuildExecutor;
+
+    // 缓存值的序列化
+    private final CacheSerializer serializer;
+
+    // 按前缀统计的指标
+    private final CacheMetrics metrics;
+
+    // 热点key探测
+    private final HotKeyDetector hotKeyDetector;
+
+    // 开启热点提升的前缀 -> 逻辑过期数据的前缀
+    private final Map<String, String> hotPromotions = new ConcurrentHashMap<>();
+
+    // 逻辑过期数据的前缀 -> 开启热点提升的前缀，提升后的读取仍按原key计数
+    private final Map<String, String> hotSources = new ConcurrentHashMap<>();
+
+    // 一级缓存中逻辑过期数据不存在的标记，写入逻辑过期数据时通过pub/sub删除
+    // 与写入并发时标记最多保留一级缓存的ttl，期间读取回到互斥锁/XFetch路径，结果仍然正确
+    private static final Object LOGICAL_ABSENT = new Object();
+
+    // 热点key提升后逻辑过期时间（分钟）
+    private static final long HOT_LOGICAL_MINUTES = 30L;
+
+    // ttl随机抖动的比例，避免批量写入的key同时过期
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter;
+
+    // 提前刷新的系数，越大越早刷新
+    @Value("${hmdp.cache.xfetch-beta:1.0}")
+    private double xfetchBeta;
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheRebuildExecutor rebuildExecutor,
+                       CacheSerializer serializer, CacheMetrics metrics, HotKeyDetector hotKeyDetector) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.rebuildExecutor = rebuildExecutor;
+        this.serializer = serializer;
+        this.metrics = metrics;
+        this.hotKeyDetector = hotKeyDetector;
+        // 热点冷却后删除逻辑过期数据，读取回到互斥锁/XFetch路径
+        hotKeyDetector.setDemoteHandler(this::delete);
+    }
+
+    /**
+     * 为指定前缀开启进程内一级缓存
+     *
+     * @param prefix  缓存前缀，与query方法的prefix一致
+     * @param maxSize 最大条目数
+     * @param ttl     一级缓存的存活时间，应远小于Redis中的ttl
+     * @param unit    时间单位
+     */
+    public void enableLocalCache(String prefix, int maxSize, long ttl, TimeUnit unit) {
+        localCaches.put(prefix, new LocalCache(maxSize, ttl, unit));
+    }
+
+    /**
+     * 为指定前缀开启热点key自动提升
+     * 读取该前缀的key超过热点阈值后，将当前值以逻辑过期写入logicalPrefix，冷却后删除
+     * 读取时应先以logicalPrefix调用queryByLogical
+     *
+     * @param prefix        queryByLock/queryByXFetch使用的前缀
+     * @param logicalPrefix queryByLogical使用的前缀
+     */
+    public void enableHotKeyPromotion(String prefix, String logicalPrefix) {
+        hotPromotions.put(prefix, logicalPrefix);
+        hotSources.put(logicalPrefix, prefix);
+    }
+
+    /**
+     * 前缀开启热点提升时对应的逻辑过期前缀，未开启时返回null
+     */
+    public String logicalPrefixOf(String prefix) {
+        return hotPromotions.get(prefix);
+    }
+
+    /**
+     * 删除缓存：删除Redis中的key，并通过pub/sub通知所有节点删除一级缓存
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        evictLocal(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 仅删除本节点一级缓存中的key，由失效消息的监听器调用
+     */
+    public void evictLocal(String key) {
+        for(LocalCache localCache : localCaches.values()) {
+            localCache.remove(key);
+        }
     }
 
     /**
      * 将对象存储到redis中，并设置过期时间ttl
+     * 空字符串作为空值标记原样写入
+     * ttl会加上随机抖动，避免批量写入的key同时过期
      *
      * @param key    Redis对应key
      * @param object 对象
@@ -33,13 +149,59 @@ public class CacheClient {
      * @param unit   时间单位
      */
     public void set2Redis(String key, Object object, Long time, TimeUnit unit) {
-        String value = JSONUtil.toJsonStr(object);
-        stringRedisTemplate.opsForValue().set(key, value, time, unit);
+        byte[] value = "".equals(object) ? new byte[0] : serializer.serialize(object, 0);
+        setBytes(key, value, Expiration.milliseconds(jitter(unit.toMillis(time))));
+    }
+
+    /**
+     * 以pipeline批量写入缓存，用于预热
+     * 写入格式与queryByXFetch一致（带过期时间，不带重建耗时），queryByLock同样可以读取
+     * 只在key不存在时写入，不覆盖预热期间由请求或更新写入的数据
+     *
+     * @param prefix key前缀
+     * @param values id -> 对象
+     * @param time   时间数值
+     * @param unit   时间单位
+     */
+    public <ID> void setBatch2Redis(String prefix, Map<ID, ?> values, Long time, TimeUnit unit) {
+        if(values.isEmpty()) {
+            return;
+        }
+        CacheMetrics.PrefixStats stats = metrics.of(prefix);
+        List<byte[]> keys = new ArrayList<>(values.size());
+        List<byte[]> bytes = new ArrayList<>(values.size());
+        List<Long> ttls = new ArrayList<>(values.size());
+        long now = System.currentTimeMillis();
+        for(Map.Entry<ID, ?> entry : values.entrySet()) {
+            long ttl = jitter(unit.toMillis(time));
+            keys.add((prefix + entry.getKey()).getBytes(StandardCharsets.UTF_8));
+            bytes.add(encode(stats, entry.getValue(), now + ttl, 0));
+            ttls.add(ttl);
+        }
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for(int i = 0; i < keys.size(); i++) {
+                connection.stringCommands().set(keys.get(i), bytes.get(i),
+                        Expiration.milliseconds(ttls.get(i)), RedisStringCommands.SetOption.ifAbsent());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 对ttl加上[-ttlJitter, +ttlJitter]比例的随机抖动
+     */
+    private long jitter(long ttlMillis) {
+        if(ttlJitter <= 0) {
+            return ttlMillis;
+        }
+        double factor = 1 + ThreadLocalRandom.current().nextDouble(-ttlJitter, ttlJitter);
+        return Math.max(1, (long) (ttlMillis * factor));
     }
 
     /**
      * 将对象存储到redis中，永不过期
-     * 但有逻辑过期时间，因此使用RedisDataDTO类进行存储
+     * 但有逻辑过期时间，逻辑过期时间以epoch毫秒写入数据头
+     * 写入后通知所有节点删除一级缓存中该key不存在的标记
      *
      * @param key    redis key
      * @param object 对象
@@ -48,10 +210,10 @@ public class CacheClient {
      * @param <T>    Object的类型
      */
     public <T> void set2RedisWithLogical(String key, T object, Long time, TimeUnit unit) {
-        // 传入对象为RedisData
-        RedisDataDTO<T> redisData = new RedisDataDTO<>(LocalDateTime.now().plusMinutes(unit.toMinutes(time)),
-                object);
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        long expireAt = System.currentTimeMillis() + unit.toMillis(time);
+        setBytes(key, serializer.serialize(object, expireAt), Expiration.persistent());
+        evictLocal(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
     }
 
     /**
@@ -60,52 +222,212 @@ public class CacheClient {
      * 缓存穿透：
      * 对于DB不存在的数据，将空值("")写入redis，ttl为5mins
      * 缓存击穿：
-     * 互斥锁
+     * 本节点内使用singleflight合并请求，节点之间使用互斥锁
      */
     public <R, ID> R queryByLock(String prefix, ID id, Class<R> type, Function<ID, R> dbFallback, String lock_prefix) {
         String key = prefix + id.toString();
+        CacheMetrics.PrefixStats stats = metrics.of(prefix);
+        // 0. 查询一级缓存
+        LocalCache localCache = localCaches.get(prefix);
+        if(localCache != null) {
+            Object local = localCache.get(key);
+            if(type.isInstance(local)) {
+                stats.localHits.increment();
+                R r = type.cast(local);
+                maybePromote(prefix, key, id, r);
+                return r;
+            }
+        }
         // 1. 从redis查询缓存并判断缓存是否命中
-        String json = stringRedisTemplate.opsForValue().get(key);
-        if(StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
+        byte[] bytes = getBytes(key);
+        if(bytes != null && bytes.length > 0) {
+            stats.hits.increment();
+            R r = decode(stats, bytes, type).getData();
+            if(localCache != null) {
+                localCache.put(key, r);
+            }
+            maybePromote(prefix, key, id, r);
+            return r;
         }
         // 判断命中是否为空值
-        if(json != null) {
+        if(bytes != null) {
+            stats.nullHits.increment();
             return null;
         }
-        String lock = null;
-        R r;
 
-        try {
-            // 2. 未命中，尝试获取锁进行cache重建
-            lock = lock_prefix + id;
-            // 未能获取到锁，进行休眠
-            if(!this.tryLock(lock)) {
-                Thread.sleep(500);
-                // 递归查询
-                return queryByLock(prefix, id, type, dbFallback, lock_prefix);
-            }
-
-            // 若成功获取锁，根据id查询DB
-            r = dbFallback.apply(id);
-
-            // 处理缓存穿透问题
-            // 若key不存在，将其写入redis，对应空值，设置ttl
-            if(r == null) {
-                this.set2Redis(key, "", 5L, TimeUnit.MINUTES);
+        // 2. 未命中，本节点内同一key的并发请求合并为一次加载
+        stats.misses.increment();
+        R r = singleFlight.execute(key, () -> loadWithLock(stats, key, id, type, dbFallback, lock_prefix + id));
+        if(r != null && localCache != null) {
+            localCache.put(key, r);
+        }
+        maybePromote(prefix, key, id, r);
+        return r;
+    }
+
+    /**
+     * 缓存重建
+     * 本节点内的并发已经由singleflight合并，Redis互斥锁只在节点之间仲裁
+     * 未获取到锁的节点短间隔轮询Redis，值写入后立即返回；使用循环代替递归
+     */
+    private <R, ID> R loadWithLock(CacheMetrics.PrefixStats stats, String key, ID id, Class<R> type,
+                                   Function<ID, R> dbFallback, String lock) {
+        long deadline = System.currentTimeMillis() + LOCK_WAIT_MILLIS;
+        long backoff = 10;
+        long waitStart = 0;
+        while(true) {
+            String token = this.tryLock(lock);
+            if(token != null) {
+                if(waitStart > 0) {
+                    stats.lockWait.recordNanos(System.nanoTime() - waitStart);
+                }
+                try {
+                    // 双重检查，其他节点可能刚完成重建
+                    byte[] bytes = getBytes(key);
+                    if(bytes != null) {
+                        return bytes.length > 0 ? decode(stats, bytes, type).getData() : null;
+                    }
+
+                    // 若成功获取锁，根据id查询DB
+                    R r = load(stats, dbFallback, id);
+
+                    // 处理缓存穿透问题
+                    // 若key不存在，将其写入redis，对应空值，设置ttl
+                    if(r == null) {
+                        this.set2Redis(key, "", 5L, TimeUnit.MINUTES);
+                        return null;
+                    }
+
+                    // 3. 将数据写入redis，并设置ttl
+                    setBytes(key, encode(stats, r, 0, 0),
+                            Expiration.milliseconds(jitter(TimeUnit.MINUTES.toMillis(30L))));
+                    return r;
+                } finally {
+                    // 4. 释放锁
+                    this.unlock(lock, token);
+                }
+            }
+
+            // 其他节点正在重建，等待其写入Redis
+            if(waitStart == 0) {
+                waitStart = System.nanoTime();
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            backoff = Math.min(backoff * 2, 100);
+            byte[] bytes = getBytes(key);
+            if(bytes != null) {
+                stats.lockWait.recordNanos(System.nanoTime() - waitStart);
+                return bytes.length > 0 ? decode(stats, bytes, type).getData() : null;
+            }
+            // 等待超过锁的ttl，持有锁的节点可能已经异常，直接查询DB兜底
+            if(System.currentTimeMillis() > deadline) {
+                stats.lockWait.recordNanos(System.nanoTime() - waitStart);
+                return load(stats, dbFallback, id);
+            }
+        }
+    }
+
+    /**
+     * 概率提前刷新（XFetch）
+     * 值与过期时间、重建耗时一起存储，Redis的ttl与过期时间一致（含抖动）
+     * 越接近过期，请求触发提前刷新的概率越高：now - cost * beta * ln(random) >= expireAt
+     * 刷新在重建线程池中异步执行，当前请求仍返回未过期的值；key已过期时按未命中处理
+     */
+    public <R, ID> R queryByXFetch(String prefix, ID id, Class<R> type, Function<ID, R> dbFallback,
+                                   Long time, TimeUnit unit) {
+        String key = prefix + id.toString();
+        CacheMetrics.PrefixStats stats = metrics.of(prefix);
+        // 0. 查询一级缓存
+        LocalCache localCache = localCaches.get(prefix);
+        CacheEntry<R> entry = null;
+        if(localCache != null) {
+            Object local = localCache.get(key);
+            if(local instanceof CacheEntry && type.isInstance(((CacheEntry<?>) local).getData())) {
+                @SuppressWarnings("unchecked")
+                CacheEntry<R> localEntry = (CacheEntry<R>) local;
+                entry = localEntry;
+            }
+        }
+        // 1. 从redis查询缓存
+        if(entry != null && !entry.isExpired()) {
+            stats.localHits.increment();
+        } else {
+            byte[] bytes = getBytes(key);
+            // 命中空值
+            if(bytes != null && bytes.length == 0) {
+                stats.nullHits.increment();
                 return null;
             }
+            if(bytes != null) {
+                stats.hits.increment();
+                entry = decode(stats, bytes, type);
+                if(localCache != null) {
+                    localCache.put(key, entry);
+                }
+            } else {
+                entry = null;
+            }
+        }
 
-            // 3. 将数据写入redis，并设置ttl
-            this.set2Redis(key, JSONUtil.toJsonStr(r), 30L, TimeUnit.MINUTES);
-        } catch(InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            // 4. 释放锁
-            this.unlock(lock);
+        // 2. 未命中，本节点内合并为一次加载
+        if(entry == null) {
+            stats.misses.increment();
+            CacheEntry<R> loaded = singleFlight.execute(key, () -> loadForXFetch(stats, key, id, dbFallback, time, unit));
+            if(loaded == null) {
+                return null;
+            }
+            if(localCache != null) {
+                localCache.put(key, loaded);
+            }
+            maybePromote(prefix, key, id, loaded.getData());
+            return loaded.getData();
         }
 
-        return r;
+        // 3. 命中，按概率提前刷新
+        if(shouldRefreshEarly(entry)) {
+            stats.earlyRefreshes.increment();
+            rebuildExecutor.submit(key, () -> {
+                CacheEntry<R> loaded = loadForXFetch(stats, key, id, dbFallback, time, unit);
+                if(localCache != null && loaded != null) {
+                    localCache.put(key, loaded);
+                }
+            });
+        }
+        maybePromote(prefix, key, id, entry.getData());
+        return entry.getData();
+    }
+
+    /**
+     * 查询DB并记录耗时，与过期时间一起写入Redis
+     */
+    private <R, ID> CacheEntry<R> loadForXFetch(CacheMetrics.PrefixStats stats, String key, ID id,
+                                                Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        long start = System.currentTimeMillis();
+        R r = load(stats, dbFallback, id);
+        int cost = (int) Math.max(1, System.currentTimeMillis() - start);
+        if(r == null) {
+            this.set2Redis(key, "", 5L, TimeUnit.MINUTES);
+            return null;
+        }
+        long ttl = jitter(unit.toMillis(time));
+        long expireAt = System.currentTimeMillis() + ttl;
+        setBytes(key, encode(stats, r, expireAt, cost), Expiration.milliseconds(ttl));
+        return new CacheEntry<>(r, expireAt, cost);
+    }
+
+    private boolean shouldRefreshEarly(CacheEntry<?> entry) {
+        if(entry.getExpireAt() <= 0 || entry.getCost() <= 0) {
+            return false;
+        }
+        // random取(0, 1]，ln(random) <= 0
+        double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+        double gap = -entry.getCost() * xfetchBeta * Math.log(random);
+        return System.currentTimeMillis() + gap >= entry.getExpireAt();
     }
 
     /**
@@ -114,67 +436,189 @@ public class CacheClient {
     public <R, ID> R queryByLogical(String prefix, ID id, Class<R> type,
                                     Function<ID, R> getById, String lock_prefix) {
         String key = prefix + id.toString();
+        CacheMetrics.PrefixStats stats = metrics.of(prefix);
+        // 0. 查询一级缓存，一级缓存中存放解码后的CacheEntry，逻辑未过期直接返回
+        // 非热点key没有逻辑过期数据，一级缓存记录不存在，不再每次读取Redis
+        LocalCache localCache = localCaches.get(prefix);
+        if(localCache != null) {
+            Object local = localCache.get(key);
+            if(local == LOGICAL_ABSENT) {
+                stats.misses.increment();
+                return null;
+            }
+            if(local instanceof CacheEntry) {
+                CacheEntry<?> localEntry = (CacheEntry<?>) local;
+                if(type.isInstance(localEntry.getData()) && !localEntry.isExpired()) {
+                    stats.localHits.increment();
+                    recordHotRead(prefix, id);
+                    return type.cast(localEntry.getData());
+                }
+            }
+        }
         // 1. 从redis查询缓存并判断缓存是否命中
-        String json = stringRedisTemplate.opsForValue().get(key);
-        // 未命中，直接返回null
-        if(StrUtil.isBlank(json)) {
+        byte[] bytes = getBytes(key);
+        // 未命中，记录不存在后返回null
+        if(bytes == null || bytes.length == 0) {
+            stats.misses.increment();
+            if(localCache != null) {
+                localCache.put(key, LOGICAL_ABSENT);
+            }
             return null;
         }
 
         // 2. 获取逻辑时间，判断是否过期
-        RedisDataDTO redisData = JSONUtil.toBean(json, RedisDataDTO.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime exprireTime = redisData.getExprireTime();
+        stats.hits.increment();
+        recordHotRead(prefix, id);
+        CacheEntry<R> entry = decode(stats, bytes, type);
+        R r = entry.getData();
         // 未过期，直接返回
-        if(exprireTime.isAfter(LocalDateTime.now())) {
+        if(!entry.isExpired()) {
+            if(localCache != null) {
+                localCache.put(key, entry);
+            }
+            return r;
+        }
+        // 已过期，本节点已在重建时直接返回旧数据
+        stats.staleHits.increment();
+        if(rebuildExecutor.isRebuilding(key)) {
             return r;
         }
-        // 已过期
         String lock = lock_prefix + id;
-        boolean flag = tryLock(lock);
+        String token = tryLock(lock);
 
-        // 3.若获取到lock，进行缓存重建
-        if(flag) {
-            // 开启线程进行重建
-            try {
-                cache_rebuild.submit(() -> prepareHotByRedis(id, 30L, getById));
-            } catch(Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                unlock(lock);
+        // 3.若获取到lock，提交重建任务，锁在重建完成后才释放
+        // 任务被去重或被拒绝时立即释放锁，返回旧数据
+        if(token != null) {
+            boolean submitted = rebuildExecutor.submit(key, () -> {
+                try {
+                    rebuildLogical(stats, key, id, getById, 30L, localCache);
+                } finally {
+                    unlock(lock, token);
+                }
+            });
+            if(!submitted) {
+                unlock(lock, token);
             }
         }
 
         return r;
     }
 
-    // 线程池
-    private static final ExecutorService cache_rebuild = Executors.newCachedThreadPool();
+    /**
+     * 查询DB并重新写入逻辑过期数据
+     * DB中已不存在时删除缓存
+     */
+    private <R, ID> void rebuildLogical(CacheMetrics.PrefixStats stats, String key, ID id, Function<ID, R> getById,
+                                        Long time, LocalCache localCache) {
+        R r = load(stats, getById, id);
+        if(r == null) {
+            delete(key);
+            return;
+        }
+        long expireAt = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(time);
+        setBytes(key, encode(stats, r, expireAt, 0), Expiration.persistent());
+        if(localCache != null) {
+            localCache.put(key, new CacheEntry<>(r, expireAt));
+        }
+    }
+
+    /**
+     * 已提升的热点key从逻辑过期数据读取时，仍按原key记录读取，
+     * 窗口结束时据此刷新热点，否则提升后的key不再计数，冷却后被降级
+     */
+    private <ID> void recordHotRead(String logicalPrefix, ID id) {
+        String prefix = hotSources.get(logicalPrefix);
+        if(prefix != null) {
+            hotKeyDetector.recordAndCheck(prefix + id);
+        }
+    }
+
+    /**
+     * 记录读取，超过热点阈值时将当前值以逻辑过期写入，由重建线程池异步执行
+     */
+    private <R, ID> void maybePromote(String prefix, String key, ID id, R r) {
+        String logicalPrefix = hotPromotions.get(prefix);
+        if(logicalPrefix == null || r == null || !hotKeyDetector.recordAndCheck(key)) {
+            return;
+        }
+        String logicalKey = logicalPrefix + id;
+        rebuildExecutor.submit(logicalKey, () -> {
+            set2RedisWithLogical(logicalKey, r, HOT_LOGICAL_MINUTES, TimeUnit.MINUTES);
+            hotKeyDetector.markPromoted(key, logicalKey);
+        });
+    }
 
     /**
      * 预热，向redis提前插入
-     * 指定shop和逻辑过期时间
-     * 向redis存入该shop
+     * 指定前缀、id和逻辑过期时间
      */
-    public <R, ID> void prepareHotByRedis(ID id, Long time, Function<ID, R> get_R) {
+    public <R, ID> void prepareHotByRedis(String prefix, ID id, Long time, Function<ID, R> get_R) {
         R r = get_R.apply(id);
-        String key = "hmdp:shop:cache:" + id.toString();
-        set2RedisWithLogical(key, r, time, TimeUnit.MINUTES);
+        if(r == null) {
+            return;
+        }
+        set2RedisWithLogical(prefix + id.toString(), r, time, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 查询DB，记录重建次数和耗时
+     */
+    private <R, ID> R load(CacheMetrics.PrefixStats stats, Function<ID, R> dbFallback, ID id) {
+        long start = System.nanoTime();
+        try {
+            return dbFallback.apply(id);
+        } finally {
+            stats.rebuilds.increment();
+            stats.load.recordNanos(System.nanoTime() - start);
+        }
+    }
+
+    private <R> CacheEntry<R> decode(CacheMetrics.PrefixStats stats, byte[] bytes, Class<R> type) {
+        long start = System.nanoTime();
+        CacheEntry<R> entry = serializer.deserialize(bytes, type);
+        stats.deserialize.recordNanos(System.nanoTime() - start);
+        return entry;
+    }
+
+    private byte[] encode(CacheMetrics.PrefixStats stats, Object value, long expireAt, int cost) {
+        long start = System.nanoTime();
+        byte[] bytes = serializer.serialize(value, expireAt, cost);
+        stats.serialize.recordNanos(System.nanoTime() - start);
+        return bytes;
     }
 
     /**
-     * 根据key获取锁
+     * 以二进制读取缓存，不经过StringRedisTemplate的字符串序列化
      */
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
-        return BooleanUtil.isTrue(flag);
+    private byte[] getBytes(String key) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(rawKey));
+    }
+
+    private void setBytes(String key, byte[] value, Expiration expiration) {
+        byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+        stringRedisTemplate.execute((RedisCallback<Boolean>) connection ->
+                connection.stringCommands().set(rawKey, value, expiration, RedisStringCommands.SetOption.upsert()));
     }
 
     /**
-     * 释放锁
+     * 根据key获取锁，value为本次加锁的随机标识
+     * 逻辑过期的重建在线程池中释放锁，不能使用线程id作为标识
+     *
+     * @return 获取成功时返回标识，失败时返回null
      */
-    private void unlock(String key) {
-        stringRedisTemplate.delete(key);
+    private String tryLock(String key) {
+        String token = UUID.randomUUID().toString(true);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, token, 10, TimeUnit.SECONDS);
+        return BooleanUtil.isTrue(flag) ? token : null;
+    }
+
+    /**
+     * 释放锁，重建超过锁的ttl时锁可能已被其他节点持有，只在value仍为自己的标识时删除
+     */
+    private void unlock(String key, String token) {
+        stringRedisTemplate.execute(UNLOCK_SCRIPT, Collections.singletonList(key), token);
     }
 
 
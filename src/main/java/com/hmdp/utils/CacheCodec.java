@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * 缓存值的编解码器
+ * 实现类注册为Spring Bean后，CacheClient对该类型的缓存使用二进制格式存储
+ * 未注册编解码器的类型仍使用JSON
+ *
+ * @param <T> 缓存对象的类型
+ */
+public interface CacheCodec<T> {
+
+    /**
+     * 编解码器标识，写入数据头用于解码，一经使用不可修改
+     */
+    byte id();
+
+    Class<T> type();
+
+    void write(T value, DataOutput out) throws IOException;
+
+    T read(DataInput in) throws IOException;
+}
@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 解码后的缓存值
+ * expireAt为逻辑过期时间（epoch毫秒），0表示没有逻辑过期时间
+ * cost为重建该值的耗时（毫秒），用于提前刷新，0表示未记录
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CacheEntry<T> {
+    private T data;
+    private long expireAt;
+    private int cost;
+
+    public CacheEntry(T data, long expireAt) {
+        this(data, expireAt, 0);
+    }
+
+    public boolean isExpired() {
+        return expireAt > 0 && expireAt <= System.currentTimeMillis();
+    }
+}
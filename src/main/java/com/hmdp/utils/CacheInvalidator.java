@@ -0,0 +1,180 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 数据更新后的缓存失效
+ * 1. 在事务中调用时，删除注册到事务提交之后执行，避免提交前被并发读取重新写入旧数据
+ * 2. 提交后立即删除一次，延迟delayMillis后再删除一次，清除删除与提交之间读取到旧数据的请求写入的缓存
+ * 3. 删除失败的key进入本地重试队列，按固定间隔重试，超过maxRetries次后放弃并记录日志
+ * 4. 开启了热点提升的前缀，同时删除逻辑过期数据
+ */
+@Slf4j
+@Component
+public class CacheInvalidator {
+    private final CacheClient cacheClient;
+
+    private final HotKeyDetector hotKeyDetector;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cache-invalidator");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final BlockingQueue<Retry> retryQueue;
+
+    private final LongAdder invalidated = new LongAdder();
+    private final LongAdder delayedDeletes = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    @Value("${hmdp.cache.invalidate.delay-millis:500}")
+    private long delayMillis;
+    @Value("${hmdp.cache.invalidate.retry-interval-millis:1000}")
+    private long retryIntervalMillis;
+    @Value("${hmdp.cache.invalidate.max-retries:5}")
+    private int maxRetries;
+
+    public CacheInvalidator(CacheClient cacheClient, HotKeyDetector hotKeyDetector,
+                            @Value("${hmdp.cache.invalidate.retry-capacity:10000}") int retryCapacity) {
+        this.cacheClient = cacheClient;
+        this.hotKeyDetector = hotKeyDetector;
+        this.retryQueue = new ArrayBlockingQueue<>(retryCapacity);
+    }
+
+    @PostConstruct
+    private void init() {
+        scheduler.scheduleWithFixedDelay(this::drainRetries, retryIntervalMillis, retryIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 使CacheClient中以prefix缓存的id失效
+     *
+     * @param prefix queryByLock/queryByXFetch/queryByLogical使用的前缀
+     * @param id     数据id
+     */
+    public void invalidate(String prefix, Object id) {
+        List<String> keys = new ArrayList<>(2);
+        String key = prefix + id;
+        keys.add(key);
+        String logicalPrefix = cacheClient.logicalPrefixOf(prefix);
+        if(logicalPrefix != null) {
+            keys.add(logicalPrefix + id);
+        }
+        afterCommit(() -> {
+            deleteTwice(keys);
+            if(logicalPrefix != null) {
+                // 逻辑过期数据已删除，允许再次提升
+                hotKeyDetector.forget(key, logicalPrefix + id);
+            }
+        });
+    }
+
+    /**
+     * 使指定的缓存key失效
+     */
+    public void invalidateKeys(List<String> keys) {
+        afterCommit(() -> deleteTwice(keys));
+    }
+
+    private void afterCommit(Runnable action) {
+        if(TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    private void deleteTwice(List<String> keys) {
+        invalidated.add(keys.size());
+        for(String key : keys) {
+            delete(key, 0);
+        }
+        if(delayMillis > 0) {
+            scheduler.schedule(() -> {
+                delayedDeletes.add(keys.size());
+                for(String key : keys) {
+                    delete(key, 0);
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void delete(String key, int attempts) {
+        try {
+            cacheClient.delete(key);
+        } catch(Exception e) {
+            // 至少保证本节点不再读到旧数据
+            cacheClient.evictLocal(key);
+            if(attempts >= maxRetries || !retryQueue.offer(new Retry(key, attempts + 1))) {
+                dropped.increment();
+                log.error("缓存删除失败，放弃重试, key: {}", key, e);
+            } else {
+                log.warn("缓存删除失败，加入重试队列, key: {}", key);
+            }
+        }
+    }
+
+    private void drainRetries() {
+        List<Retry> retries = new ArrayList<>();
+        retryQueue.drainTo(retries);
+        for(Retry retry : retries) {
+            retried.increment();
+            delete(retry.key, retry.attempts);
+        }
+    }
+
+    /**
+     * 失效次数、延迟删除次数、重试次数和积压
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("invalidated", invalidated.sum());
+        stats.put("delayedDeletes", delayedDeletes.sum());
+        stats.put("retried", retried.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("retryQueueDepth", retryQueue.size());
+        return stats;
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        scheduler.shutdown();
+        // 尽量在退出前处理完重试队列
+        drainRetries();
+    }
+
+    private static class Retry {
+        private final String key;
+        private final int attempts;
+
+        private Retry(String key, int attempts) {
+            this.key = key;
+            this.attempts = attempts;
+        }
+    }
+}
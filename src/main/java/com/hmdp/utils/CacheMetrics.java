@@ -0,0 +1,82 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * CacheClient按key前缀统计的指标
+ * 计数使用LongAdder，耗时使用LatencyHistogram，记录时均无锁
+ */
+@Component
+public class CacheMetrics {
+    private final Map<String, PrefixStats> stats = new ConcurrentHashMap<>();
+
+    public PrefixStats of(String prefix) {
+        PrefixStats prefixStats = stats.get(prefix);
+        if(prefixStats == null) {
+            prefixStats = stats.computeIfAbsent(prefix, p -> new PrefixStats());
+        }
+        return prefixStats;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        stats.forEach((prefix, prefixStats) -> snapshot.put(prefix, prefixStats.snapshot()));
+        return snapshot;
+    }
+
+    public static class PrefixStats {
+        // 一级缓存命中
+        public final LongAdder localHits = new LongAdder();
+        // Redis命中
+        public final LongAdder hits = new LongAdder();
+        // 命中空值
+        public final LongAdder nullHits = new LongAdder();
+        // 未命中
+        public final LongAdder misses = new LongAdder();
+        // 逻辑过期命中（返回旧数据）
+        public final LongAdder staleHits = new LongAdder();
+        // 查询DB重建的次数
+        public final LongAdder rebuilds = new LongAdder();
+        // 提前刷新的次数
+        public final LongAdder earlyRefreshes = new LongAdder();
+
+        // 等待其他节点释放锁的耗时
+        public final LatencyHistogram lockWait = new LatencyHistogram();
+        // 查询DB的耗时
+        public final LatencyHistogram load = new LatencyHistogram();
+        // 序列化、反序列化的耗时
+        public final LatencyHistogram serialize = new LatencyHistogram();
+        public final LatencyHistogram deserialize = new LatencyHistogram();
+
+        private Map<String, Object> snapshot() {
+            long local = localHits.sum();
+            long hit = hits.sum();
+            long nullHit = nullHits.sum();
+            long miss = misses.sum();
+            long total = local + hit + nullHit + miss;
+
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("requests", total);
+            snapshot.put("localHits", local);
+            snapshot.put("hits", hit);
+            snapshot.put("nullHits", nullHit);
+            snapshot.put("misses", miss);
+            snapshot.put("staleHits", staleHits.sum());
+            snapshot.put("hitRatio", total == 0 ? 0 : (double) (local + hit + nullHit) / total);
+            snapshot.put("nullHitRatio", total == 0 ? 0 : (double) nullHit / total);
+            snapshot.put("rebuilds", rebuilds.sum());
+            snapshot.put("earlyRefreshes", earlyRefreshes.sum());
+            snapshot.put("lockWait", lockWait.snapshot());
+            snapshot.put("load", load.snapshot());
+            snapshot.put("serialize", serialize.snapshot());
+            snapshot.put("deserialize", deserialize.snapshot());
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 缓存重建线程池
+ * 1. 线程数和队列长度有界，过期风暴时不会无限创建线程
+ * 2. 同一key的重建在完成之前只会提交一次
+ * 3. 队列已满时拒绝提交，调用方直接返回旧数据
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+    private final ThreadPoolExecutor executor;
+
+    // 正在重建（排队中或执行中）的key
+    private final Set<String> rebuilding = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder totalLatencyMicros = new LongAdder();
+    private final AtomicLong maxLatencyMicros = new AtomicLong();
+
+    public CacheRebuildExecutor(@Value("${hmdp.cache.rebuild.core-size:2}") int coreSize,
+                                @Value("${hmdp.cache.rebuild.max-size:4}") int maxSize,
+                                @Value("${hmdp.cache.rebuild.queue-capacity:256}") int queueCapacity) {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(coreSize, maxSize, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * 提交重建任务
+     *
+     * @param key  缓存key，用于去重
+     * @param task 重建任务
+     * @return 是否提交成功；false表示该key已在重建或队列已满，调用方应直接返回旧数据
+     */
+    public boolean submit(String key, Runnable task) {
+        if(!rebuilding.add(key)) {
+            deduplicated.increment();
+            return false;
+        }
+        try {
+            executor.execute(() -> run(key, task));
+            submitted.increment();
+            return true;
+        } catch(RejectedExecutionException e) {
+            rebuilding.remove(key);
+            rejected.increment();
+            log.warn("缓存重建队列已满，返回旧数据, key: {}", key);
+            return false;
+        }
+    }
+
+    public boolean isRebuilding(String key) {
+        return rebuilding.contains(key);
+    }
+
+    private void run(String key, Runnable task) {
+        long start = System.nanoTime();
+        try {
+            task.run();
+            completed.increment();
+        } catch(Exception e) {
+            failed.increment();
+            log.error("缓存重建失败, key: {}", key, e);
+        } finally {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            totalLatencyMicros.add(micros);
+            maxLatencyMicros.accumulateAndGet(micros, Math::max);
+            rebuilding.remove(key);
+        }
+    }
+
+    /**
+     * 线程池状态：队列深度、重建耗时、拒绝次数等
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long done = completed.sum() + failed.sum();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("activeThreads", executor.getActiveCount());
+        stats.put("poolSize", executor.getPoolSize());
+        stats.put("inFlightKeys", rebuilding.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("avgLatencyMicros", done == 0 ? 0 : totalLatencyMicros.sum() / done);
+        stats.put("maxLatencyMicros", maxLatencyMicros.get());
+        return stats;
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,150 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.RedisDataDTO;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存值的序列化
+ * 格式：MAGIC(1) | flags(1) | codecId(1) | [expireAt(8)] | [cost(4)] | payload
+ * 1. 注册了CacheCodec的类型，payload为二进制；否则payload为JSON
+ * 2. 逻辑过期时间以epoch毫秒写入数据头，不再包装为RedisDataDTO
+ * 3. 不以MAGIC开头的数据为旧的JSON格式，仍可读取（包括RedisDataDTO包装的逻辑过期数据）
+ */
+@Component
+public class CacheSerializer {
+    // JSON的UTF-8编码不会以该字节开头，据此区分新旧格式
+    private static final byte MAGIC = (byte) 0xCB;
+
+    private static final int FLAG_EXPIRE = 1;
+    private static final int FLAG_JSON = 1 << 1;
+    private static final int FLAG_COST = 1 << 2;
+
+    private static final int HEADER_LENGTH = 3;
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+
+    private final Map<Class<?>, CacheCodec<?>> codecsByType = new HashMap<>();
+    private final CacheCodec<?>[] codecsById = new CacheCodec<?>[256];
+
+    public CacheSerializer(List<CacheCodec<?>> codecs) {
+        for(CacheCodec<?> codec : codecs) {
+            int id = codec.id() & 0xFF;
+            if(id == 0 || codecsById[id] != null) {
+                throw new IllegalStateException("CacheCodec id重复或为0: " + codec.getClass().getName());
+            }
+            codecsById[id] = codec;
+            codecsByType.put(codec.type(), codec);
+        }
+    }
+
+    /**
+     * 序列化
+     *
+     * @param value    缓存对象
+     * @param expireAt 逻辑过期时间（epoch毫秒），0表示没有
+     */
+    public byte[] serialize(Object value, long expireAt) {
+        return serialize(value, expireAt, 0);
+    }
+
+    /**
+     * 序列化
+     *
+     * @param value    缓存对象
+     * @param expireAt 逻辑过期时间（epoch毫秒），0表示没有
+     * @param cost     重建耗时（毫秒），0表示不记录
+     */
+    @SuppressWarnings("unchecked")
+    public byte[] serialize(Object value, long expireAt, int cost) {
+        CacheCodec<Object> codec = (CacheCodec<Object>) codecsByType.get(value.getClass());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bos);
+        try {
+            int flags = (expireAt > 0 ? FLAG_EXPIRE : 0) | (codec == null ? FLAG_JSON : 0)
+                    | (cost > 0 ? FLAG_COST : 0);
+            out.writeByte(MAGIC);
+            out.writeByte(flags);
+            out.writeByte(codec == null ? 0 : codec.id());
+            if(expireAt > 0) {
+                out.writeLong(expireAt);
+            }
+            if(cost > 0) {
+                out.writeInt(cost);
+            }
+            if(codec == null) {
+                out.write(JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8));
+            } else {
+                codec.write(value, out);
+            }
+            out.flush();
+        } catch(IOException e) {
+            throw new IllegalStateException("缓存序列化失败", e);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * 反序列化，兼容旧的JSON格式
+     */
+    public <T> CacheEntry<T> deserialize(byte[] bytes, Class<T> type) {
+        if(bytes[0] != MAGIC) {
+            return deserializeJson(new String(bytes, StandardCharsets.UTF_8), type);
+        }
+        int flags = bytes[1];
+        int offset = HEADER_LENGTH;
+        try {
+            DataInputStream in = new DataInputStream(
+                    new ByteArrayInputStream(bytes, offset, bytes.length - offset));
+            long expireAt = 0;
+            if((flags & FLAG_EXPIRE) != 0) {
+                expireAt = in.readLong();
+                offset += 8;
+            }
+            int cost = 0;
+            if((flags & FLAG_COST) != 0) {
+                cost = in.readInt();
+                offset += 4;
+            }
+            T data;
+            if((flags & FLAG_JSON) != 0) {
+                data = JSONUtil.toBean(new String(bytes, offset, bytes.length - offset, StandardCharsets.UTF_8), type);
+            } else {
+                CacheCodec<?> codec = codecsById[bytes[2] & 0xFF];
+                if(codec == null) {
+                    throw new IllegalStateException("未知的CacheCodec id: " + (bytes[2] & 0xFF));
+                }
+                data = type.cast(codec.read(in));
+            }
+            return new CacheEntry<>(data, expireAt, cost);
+        } catch(IOException e) {
+            throw new IllegalStateException("缓存反序列化失败", e);
+        }
+    }
+
+    /**
+     * 旧格式：直接存储的JSON，或RedisDataDTO包装的逻辑过期数据
+     */
+    private <T> CacheEntry<T> deserializeJson(String json, Class<T> type) {
+        JSONObject jsonObject = JSONUtil.parseObj(json);
+        if(jsonObject.containsKey("exprireTime") && jsonObject.containsKey("data")) {
+            RedisDataDTO redisData = JSONUtil.toBean(jsonObject, RedisDataDTO.class);
+            T data = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            long expireAt = redisData.getExprireTime().atZone(ZONE).toInstant().toEpochMilli();
+            return new CacheEntry<>(data, expireAt);
+        }
+        return new CacheEntry<>(JSONUtil.toBean(jsonObject, type), 0);
+    }
+}
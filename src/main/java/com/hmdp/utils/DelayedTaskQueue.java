@@ -0,0 +1,273 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 延时任务
+ * 1. 任务以到期时间为score保存在Redis的zset中，节点重启或宕机后不丢失
+ * 2. 各节点定期从zset加载horizonMillis内到期的任务放入本地时间轮，本地只保存近期的任务
+ * 3. 任务到期后先ZREM，删除成功的节点才执行，多个节点加载同一任务时只执行一次；
+ *    到期任务按batchSize批量交给handler，失败时延迟retryDelayMillis后重新加入zset
+ * 4. 到期时间推迟的任务不移出时间轮，原到期时间到达时按新的到期时间重新放入
+ */
+@Slf4j
+public class DelayedTaskQueue {
+    private final String name;
+    private final String key;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final TimingWheel<String> wheel;
+    private final long horizonMillis;
+    private final int batchSize;
+    private final long retryDelayMillis;
+    private final Consumer<List<String>> handler;
+
+    // 已放入本地时间轮的任务 -> 到期时间
+    private final Map<String, Long> scheduled = new ConcurrentHashMap<>();
+
+    // 放入时间轮时已到期的任务
+    private final BlockingQueue<String> ready = new LinkedBlockingQueue<>();
+
+    private final LongAdder loaded = new LongAdder();
+    private final LongAdder handled = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private final Thread loader;
+    private final Thread firer;
+    private volatile boolean running = true;
+
+    public DelayedTaskQueue(String name, String key, StringRedisTemplate stringRedisTemplate,
+                            long tickMillis, int wheelSize, long horizonMillis, int batchSize,
+                            long retryDelayMillis, Consumer<List<String>> handler) {
+        this.name = name;
+        this.key = key;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.wheel = new TimingWheel<>(tickMillis, wheelSize);
+        this.horizonMillis = horizonMillis;
+        this.batchSize = batchSize;
+        this.retryDelayMillis = retryDelayMillis;
+        this.handler = handler;
+
+        this.loader = new Thread(this::runLoader, name + "-loader");
+        this.loader.setDaemon(true);
+        this.firer = new Thread(this::runFirer, name + "-firer");
+        this.firer.setDaemon(true);
+        loader.start();
+        firer.start();
+    }
+
+    /**
+     * 添加任务，已存在的任务更新到期时间（包括已放入本地时间轮的任务）
+     *
+     * @param deadlines 任务 -> 到期时间（epoch毫秒）
+     */
+    public void schedule(Map<String, Long> deadlines) {
+        if(deadlines.isEmpty()) {
+            return;
+        }
+        Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(deadlines.size());
+        deadlines.forEach((task, deadline) -> tuples.add(new DefaultTypedTuple<>(task, deadline.doubleValue())));
+        stringRedisTemplate.opsForZSet().add(key, tuples);
+        long horizon = System.currentTimeMillis() + horizonMillis;
+        deadlines.forEach((task, deadline) -> {
+            if(deadline <= horizon) {
+                scheduleLocal(task, deadline);
+            } else {
+                // 已在时间轮中的任务推迟到horizon之外
+                scheduled.computeIfPresent(task, (t, previous) -> deadline);
+            }
+        });
+    }
+
+    /**
+     * 取消任务；已放入本地时间轮的任务到期时因ZREM失败而跳过
+     */
+    public void cancel(Collection<String> tasks) {
+        if(tasks.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForZSet().remove(key, tasks.toArray());
+    }
+
+    /**
+     * 本地时间轮和zset中的任务数量，以及加载、执行、跳过（其他节点已执行或已取消）、失败的数量
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("wheel", wheel.size());
+        stats.put("ready", ready.size());
+        Long pending = stringRedisTemplate.opsForZSet().zCard(key);
+        stats.put("pending", pending == null ? 0 : pending);
+        stats.put("loaded", loaded.sum());
+        stats.put("handled", handled.sum());
+        stats.put("skipped", skipped.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    public void shutdown() {
+        running = false;
+        loader.interrupt();
+        firer.interrupt();
+    }
+
+    /**
+     * 放入时间轮；已在时间轮中的任务到期时间提前时再放入一次，推迟时只更新到期时间，
+     * 原到期时间到达时在filterDue中重新放入
+     */
+    private void scheduleLocal(String task, long deadline) {
+        Long previous = scheduled.put(task, deadline);
+        if(previous != null && previous <= deadline) {
+            return;
+        }
+        if(!wheel.add(task, deadline)) {
+            ready.offer(task);
+        }
+    }
+
+    /**
+     * 每隔horizonMillis/2加载一次，任务在到期前至少horizonMillis/2已放入时间轮
+     * 每页加载batchSize * 10个，直到返回的不足一页；已放入时间轮的任务仍在zset中，按偏移量翻页
+     */
+    private void runLoader() {
+        long interval = Math.max(horizonMillis / 2, wheel.tickMillis());
+        long pageSize = batchSize * 10L;
+        while(running) {
+            try {
+                long max = System.currentTimeMillis() + horizonMillis;
+                for(long offset = 0; running; offset += pageSize) {
+                    Set<ZSetOperations.TypedTuple<String>> page = stringRedisTemplate.opsForZSet()
+                            .rangeByScoreWithScores(key, 0, max, offset, pageSize);
+                    if(page == null) {
+                        break;
+                    }
+                    for(ZSetOperations.TypedTuple<String> tuple : page) {
+                        if(tuple.getValue() == null || tuple.getScore() == null) {
+                            continue;
+                        }
+                        // 未加载，或到期时间已被其他节点更新
+                        long deadline = tuple.getScore().longValue();
+                        Long local = scheduled.get(tuple.getValue());
+                        if(local == null) {
+                            loaded.increment();
+                        }
+                        if(local == null || local != deadline) {
+                            scheduleLocal(tuple.getValue(), deadline);
+                        }
+                    }
+                    if(page.size() < pageSize) {
+                        break;
+                    }
+                }
+                Thread.sleep(interval);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch(Exception e) {
+                log.error("[{}] 加载延时任务失败", name, e);
+                sleepQuietly(interval);
+            }
+        }
+    }
+
+    private void runFirer() {
+        while(running) {
+            try {
+                List<String> expired = wheel.poll(100, TimeUnit.MILLISECONDS);
+                ready.drainTo(expired);
+                expired = filterDue(expired);
+                for(int i = 0; i < expired.size(); i += batchSize) {
+                    List<String> batch = expired.subList(i, Math.min(i + batchSize, expired.size()));
+                    try {
+                        fire(batch);
+                    } catch(Exception e) {
+                        // 未能认领的任务仍在zset中，由下一次加载重新放入时间轮
+                        batch.forEach(scheduled::remove);
+                        log.error("[{}] 认领延时任务失败, 数量: {}", name, batch.size(), e);
+                    }
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 过滤时间轮返回的任务：已执行的重复条目丢弃，到期时间已推迟的按新的到期时间重新放入
+     */
+    private List<String> filterDue(List<String> expired) {
+        List<String> due = new ArrayList<>(expired.size());
+        for(String task : expired) {
+            Long deadline = scheduled.get(task);
+            if(deadline != null && !wheel.add(task, deadline)) {
+                due.add(task);
+            }
+        }
+        return due;
+    }
+
+    /**
+     * 以ZREM认领到期的任务，只执行本节点删除成功的
+     */
+    private void fire(List<String> tasks) {
+        List<Object> removed = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            for(String task : tasks) {
+                connection.zSetCommands().zRem(rawKey, task.getBytes(StandardCharsets.UTF_8));
+            }
+            return null;
+        });
+        List<String> owned = new ArrayList<>(tasks.size());
+        for(int i = 0; i < tasks.size(); i++) {
+            scheduled.remove(tasks.get(i));
+            if(Long.valueOf(1L).equals(removed.get(i))) {
+                owned.add(tasks.get(i));
+            }
+        }
+        skipped.add(tasks.size() - owned.size());
+        if(owned.isEmpty()) {
+            return;
+        }
+        try {
+            handler.accept(owned);
+            handled.add(owned.size());
+        } catch(Exception e) {
+            failed.add(owned.size());
+            log.error("[{}] 延时任务处理失败, {}ms后重试, 数量: {}", name, retryDelayMillis, owned.size(), e);
+            long retryAt = System.currentTimeMillis() + retryDelayMillis;
+            Set<ZSetOperations.TypedTuple<String>> tuples = new HashSet<>(owned.size());
+            for(String task : owned) {
+                tuples.add(new DefaultTypedTuple<>(task, (double) retryAt));
+            }
+            stringRedisTemplate.opsForZSet().add(key, tuples);
+        }
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
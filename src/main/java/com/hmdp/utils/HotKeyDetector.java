@@ -0,0 +1,227 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+
+/**
+ * 热点key探测
+ * 1. 对CacheClient的读取按sampleRate抽样，计入count-min sketch，每个窗口计数减半
+ * 2. 估计访问量超过阈值的key由CacheClient提升为逻辑过期存储
+ * 3. 已提升的key记录在Redis的zset中（score为最近一次仍为热点的时间），所有节点共享
+ * 4. 超过coolWindows个窗口没有节点认为其仍为热点时降级，由demoteHandler删除逻辑过期数据
+ */
+@Slf4j
+@Component
+public class HotKeyDetector {
+    private static final int DEPTH = 4;
+    private static final int WIDTH = 4096;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    // member格式：源key|逻辑过期key
+    private static final String HOT_KEYS = "cache:hot:keys";
+    private static final String SEPARATOR = "|";
+
+    private final AtomicIntegerArray[] sketch = new AtomicIntegerArray[DEPTH];
+
+    // 本节点已知的已提升key：源key -> 逻辑过期key
+    private final Map<String, String> promoted = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "hot-key-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Consumer<String> demoteHandler = key -> { };
+
+    @Value("${hmdp.cache.hot.sample-rate:4}")
+    private int sampleRate;
+    // 每个窗口内的估计访问次数阈值
+    @Value("${hmdp.cache.hot.threshold:200}")
+    private int threshold;
+    @Value("${hmdp.cache.hot.window-seconds:10}")
+    private long windowSeconds;
+    @Value("${hmdp.cache.hot.cool-windows:3}")
+    private int coolWindows;
+
+    public HotKeyDetector(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        for(int i = 0; i < DEPTH; i++) {
+            sketch[i] = new AtomicIntegerArray(WIDTH);
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        scheduler.scheduleWithFixedDelay(this::onWindow, windowSeconds, windowSeconds, TimeUnit.SECONDS);
+    }
+
+    public void setDemoteHandler(Consumer<String> demoteHandler) {
+        this.demoteHandler = demoteHandler;
+    }
+
+    /**
+     * 记录一次读取
+     *
+     * @return key已超过阈值且尚未提升
+     */
+    public boolean recordAndCheck(String key) {
+        if(sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return false;
+        }
+        int min = Integer.MAX_VALUE;
+        int hash = key.hashCode();
+        for(int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, sketch[i].incrementAndGet(index(hash, i)));
+        }
+        return (long) min * sampleRate >= threshold && !promoted.containsKey(key);
+    }
+
+    /**
+     * 估计当前窗口的访问次数
+     */
+    public long estimate(String key) {
+        int min = Integer.MAX_VALUE;
+        int hash = key.hashCode();
+        for(int i = 0; i < DEPTH; i++) {
+            min = Math.min(min, sketch[i].get(index(hash, i)));
+        }
+        return (long) min * Math.max(sampleRate, 1);
+    }
+
+    /**
+     * CacheClient写入逻辑过期数据后调用
+     */
+    public void markPromoted(String key, String logicalKey) {
+        promoted.put(key, logicalKey);
+        stringRedisTemplate.opsForZSet().add(HOT_KEYS, key + SEPARATOR + logicalKey, System.currentTimeMillis());
+        log.info("热点key提升为逻辑过期: {} -> {}", key, logicalKey);
+    }
+
+    /**
+     * 逻辑过期数据被删除（如数据更新）后调用，不触发降级，之后仍为热点时重新提升
+     */
+    public void forget(String key, String logicalKey) {
+        if(promoted.remove(key) == null) {
+            return;
+        }
+        try {
+            stringRedisTemplate.opsForZSet().remove(HOT_KEYS, key + SEPARATOR + logicalKey);
+        } catch(Exception e) {
+            log.warn("移除热点key失败: {}", key, e);
+        }
+    }
+
+    /**
+     * 已提升的热点key，包括最近一次仍为热点的时间和本节点的估计访问量
+     */
+    public List<Map<String, Object>> hotKeys() {
+        Set<ZSetOperations.TypedTuple<String>> tuples =
+                stringRedisTemplate.opsForZSet().rangeWithScores(HOT_KEYS, 0, -1);
+        List<Map<String, Object>> hotKeys = new ArrayList<>();
+        if(tuples == null) {
+            return hotKeys;
+        }
+        for(ZSetOperations.TypedTuple<String> tuple : tuples) {
+            String[] keys = split(tuple.getValue());
+            Map<String, Object> hotKey = new LinkedHashMap<>();
+            hotKey.put("key", keys[0]);
+            hotKey.put("logicalKey", keys[1]);
+            hotKey.put("lastHotTime", tuple.getScore() == null ? null : tuple.getScore().longValue());
+            hotKey.put("localEstimate", estimate(keys[0]));
+            hotKeys.add(hotKey);
+        }
+        return hotKeys;
+    }
+
+    /**
+     * 窗口结束：刷新本节点仍为热点的key，降级冷却的key，计数减半
+     */
+    private void onWindow() {
+        try {
+            long now = System.currentTimeMillis();
+            for(Map.Entry<String, String> entry : promoted.entrySet()) {
+                if(estimate(entry.getKey()) * 2 >= threshold) {
+                    stringRedisTemplate.opsForZSet().add(HOT_KEYS, entry.getKey() + SEPARATOR + entry.getValue(), now);
+                }
+            }
+
+            long coolBefore = now - TimeUnit.SECONDS.toMillis(windowSeconds) * coolWindows;
+            Set<String> cooled = stringRedisTemplate.opsForZSet().rangeByScore(HOT_KEYS, 0, coolBefore);
+            if(cooled != null) {
+                for(String member : cooled) {
+                    // 只有成功移除的节点执行降级
+                    Long removed = stringRedisTemplate.opsForZSet().remove(HOT_KEYS, member);
+                    if(removed != null && removed > 0) {
+                        String[] keys = split(member);
+                        demoteHandler.accept(keys[1]);
+                        log.info("热点key降级: {}", keys[0]);
+                    }
+                }
+            }
+
+            // 与Redis同步本节点的已提升key
+            Set<String> members = stringRedisTemplate.opsForZSet().range(HOT_KEYS, 0, -1);
+            Set<String> alive = new HashSet<>();
+            if(members != null) {
+                for(String member : members) {
+                    String[] keys = split(member);
+                    alive.add(keys[0]);
+                    promoted.putIfAbsent(keys[0], keys[1]);
+                }
+            }
+            promoted.keySet().retainAll(alive);
+
+            decay();
+        } catch(Exception e) {
+            log.error("热点key探测窗口处理异常", e);
+        }
+    }
+
+    private void decay() {
+        for(AtomicIntegerArray row : sketch) {
+            for(int i = 0; i < WIDTH; i++) {
+                row.set(i, row.get(i) >> 1);
+            }
+        }
+    }
+
+    private static int index(int hash, int row) {
+        int h = hash * 0x9E3779B9 + SEEDS[row];
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h & (WIDTH - 1);
+    }
+
+    private static String[] split(String member) {
+        int index = member.lastIndexOf(SEPARATOR);
+        return new String[]{member.substring(0, index), member.substring(index + 1)};
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        scheduler.shutdownNow();
+    }
+}
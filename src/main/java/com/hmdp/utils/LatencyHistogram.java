@@ -0,0 +1,76 @@
+package com.hmdp.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 低开销的耗时直方图（微秒）
+ * 按2的幂划分桶，每个桶为LongAdder，记录时无锁
+ * 分位数取所在桶的上界，为近似值
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = 40;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram() {
+        for(int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long micros) {
+        if(micros < 0) {
+            micros = 0;
+        }
+        // 桶i的范围为[2^(i-1), 2^i)，桶0为0
+        int index = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        buckets[index].increment();
+        count.increment();
+        sum.add(micros);
+        if(micros > max.get()) {
+            max.accumulateAndGet(micros, Math::max);
+        }
+    }
+
+    public void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    public Map<String, Object> snapshot() {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", count.sum());
+        snapshot.put("avgMicros", total == 0 ? 0 : sum.sum() / total);
+        snapshot.put("p50Micros", percentile(counts, total, 0.50));
+        snapshot.put("p90Micros", percentile(counts, total, 0.90));
+        snapshot.put("p99Micros", percentile(counts, total, 0.99));
+        snapshot.put("maxMicros", max.get());
+        return snapshot;
+    }
+
+    private static long percentile(long[] counts, long total, double p) {
+        if(total == 0) {
+            return 0;
+        }
+        long threshold = (long) Math.ceil(total * p);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= threshold) {
+                return i == 0 ? 0 : (1L << i) - 1;
+            }
+        }
+        return (1L << (BUCKETS - 1)) - 1;
+    }
+}
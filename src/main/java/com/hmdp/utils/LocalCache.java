@@ -0,0 +1,103 @@
+package com.hmdp.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的一级缓存（L1），位于Redis之前
+ * 每个key前缀对应一个LocalCache，各自配置容量和ttl
+ * 读操作无锁；超出容量时先淘汰过期项，再淘汰最早写入的项
+ */
+public class LocalCache {
+    // 最大条目数
+    private final int maxSize;
+    // 存活时间（毫秒）
+    private final long ttlMillis;
+
+    private final Map<String, Entry> map;
+
+    public LocalCache(int maxSize, long ttl, TimeUnit unit) {
+        this.maxSize = maxSize;
+        this.ttlMillis = unit.toMillis(ttl);
+        this.map = new ConcurrentHashMap<>(Math.min(maxSize, 1024));
+    }
+
+    /**
+     * 读取缓存，已过期的条目视为未命中并顺带删除
+     */
+    public Object get(String key) {
+        Entry entry = map.get(key);
+        if(entry == null) {
+            return null;
+        }
+        if(entry.expireAt < System.currentTimeMillis()) {
+            map.remove(key, entry);
+            return null;
+        }
+        return entry.value;
+    }
+
+    public void put(String key, Object value) {
+        if(value == null) {
+            return;
+        }
+        map.put(key, new Entry(value, System.currentTimeMillis() + ttlMillis));
+        if(map.size() > maxSize) {
+            evict();
+        }
+    }
+
+    public void remove(String key) {
+        map.remove(key);
+    }
+
+    public void clear() {
+        map.clear();
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * 淘汰：先清理所有过期条目，若仍超出容量，则淘汰最早写入的条目直至容量的90%
+     */
+    private synchronized void evict() {
+        if(map.size() <= maxSize) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        map.values().removeIf(entry -> entry.expireAt < now);
+
+        int target = (int) (maxSize * 0.9);
+        while(map.size() > target) {
+            String oldestKey = null;
+            long oldest = Long.MAX_VALUE;
+            // 抽样淘汰，避免每次全量排序
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            for(int i = 0; i < 16 && it.hasNext(); i++) {
+                Map.Entry<String, Entry> e = it.next();
+                if(e.getValue().expireAt < oldest) {
+                    oldest = e.getValue().expireAt;
+                    oldestKey = e.getKey();
+                }
+            }
+            if(oldestKey == null) {
+                break;
+            }
+            map.remove(oldestKey);
+        }
+    }
+
+    private static class Entry {
+        private final Object value;
+        private final long expireAt;
+
+        private Entry(Object value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+}
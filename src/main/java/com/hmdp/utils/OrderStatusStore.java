@@ -0,0 +1,164 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * 异步订单的处理结果，保存在Redis中，查询时不访问DB
+ * 1. 记录为 状态:用户id[:原因]，状态为 q（排队中）、p（已写入）、f（失败）、c（已取消），有效期ttlSeconds
+ * 2. key为order:status:十六进制订单id，lua脚本下单时在同一原子操作中写入排队中
+ * 3. 状态变化后通过pub/sub通知所有节点，唤醒本节点等待该订单的长轮询请求
+ */
+@Slf4j
+@Component
+public class OrderStatusStore {
+    public static final String STATUS_KEY = "order:status:";
+
+    public static final String QUEUED = "q";
+    public static final String PERSISTED = "p";
+    public static final String FAILED = "f";
+    public static final String CANCELLED = "c";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // orderId -> 本节点等待状态变化的请求
+    private final Map<Long, List<Runnable>> waiters = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.seckill.status.ttl-seconds:3600}")
+    private long ttlSeconds;
+
+    public OrderStatusStore(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public long ttlSeconds() {
+        return ttlSeconds;
+    }
+
+    public static String key(long orderId) {
+        return STATUS_KEY + Long.toHexString(orderId);
+    }
+
+    /**
+     * 写入一批订单的状态，并通知所有节点
+     *
+     * @param records orderId -> 状态:用户id[:原因]
+     */
+    public void save(Map<Long, String> records) {
+        if(records.isEmpty()) {
+            return;
+        }
+        Expiration expiration = Expiration.seconds(ttlSeconds);
+        String ids = records.keySet().stream().map(String::valueOf).collect(Collectors.joining(","));
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            records.forEach((orderId, record) -> connection.stringCommands().set(
+                    key(orderId).getBytes(StandardCharsets.UTF_8), record.getBytes(StandardCharsets.UTF_8),
+                    expiration, RedisStringCommands.SetOption.upsert()));
+            connection.publish(RedisConstants.ORDER_STATUS_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                    ids.getBytes(StandardCharsets.UTF_8));
+            return null;
+        });
+    }
+
+    public static String record(String status, Long userId, String reason) {
+        return reason == null ? status + ":" + userId : status + ":" + userId + ":" + reason;
+    }
+
+    /**
+     * 查询订单状态，记录不存在或不属于该用户时为null
+     */
+    public Map<String, Object> get(Long orderId, Long userId) {
+        String record = stringRedisTemplate.opsForValue().get(key(orderId));
+        if(record == null) {
+            return null;
+        }
+        String[] parts = record.split(":", 3);
+        if(parts.length < 2 || !parts[1].equals(userId.toString())) {
+            return null;
+        }
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("orderId", orderId);
+        status.put("status", name(parts[0]));
+        if(parts.length > 2) {
+            status.put("reason", parts[2]);
+        }
+        return status;
+    }
+
+    /**
+     * 是否为最终状态（不再需要等待）
+     */
+    public static boolean isFinal(Map<String, Object> status) {
+        return status != null && !"queued".equals(status.get("status"));
+    }
+
+    /**
+     * 等待订单状态变化，变化后回调一次
+     */
+    public void await(Long orderId, Runnable onChange) {
+        waiters.computeIfAbsent(orderId, id -> new CopyOnWriteArrayList<>()).add(onChange);
+    }
+
+    /**
+     * 取消等待（长轮询超时或已完成）
+     */
+    public void cancelAwait(Long orderId, Runnable onChange) {
+        waiters.computeIfPresent(orderId, (id, list) -> {
+            list.remove(onChange);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    /**
+     * 由状态变化消息的监听器调用，消息为逗号分隔的订单id
+     */
+    public void onMessage(String message) {
+        if(waiters.isEmpty()) {
+            return;
+        }
+        for(String id : message.split(",")) {
+            if(id.isEmpty()) {
+                continue;
+            }
+            List<Runnable> woken = waiters.remove(Long.valueOf(id));
+            if(woken == null) {
+                continue;
+            }
+            for(Runnable waiter : woken) {
+                try {
+                    waiter.run();
+                } catch(Exception e) {
+                    log.warn("唤醒订单状态等待失败, orderId: {}", id, e);
+                }
+            }
+        }
+    }
+
+    private static String name(String status) {
+        switch(status) {
+            case QUEUED:
+                return "queued";
+            case PERSISTED:
+                return "persisted";
+            case FAILED:
+                return "failed";
+            case CANCELLED:
+                return "cancelled";
+            default:
+                return status;
+        }
+    }
+}
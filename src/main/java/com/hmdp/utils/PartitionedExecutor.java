@@ -0,0 +1,218 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * 按分区key执行任务
+ * 1. 分区key哈希相同的任务由同一个lane按提交顺序执行，不同lane并行
+ * 2. 每个lane一个线程和一个有界队列，队列满时submit阻塞（反压）；lane每次取出队列中已有的任务批量交给handler
+ * 3. lane数量可在运行时调整：旧lane处理完已提交的任务后新lane才开始执行，同一key的任务仍然有序
+ */
+@Slf4j
+public class PartitionedExecutor<T> {
+    private final String name;
+    private final int queueCapacity;
+    private final int maxBatch;
+    private final Consumer<List<T>> handler;
+
+    // submit持有读锁，resize持有写锁，保证调整后不会再向旧lane提交
+    private final ReadWriteLock resizeLock = new ReentrantReadWriteLock();
+
+    private volatile Lane<T>[] lanes;
+    private int generation;
+
+    public PartitionedExecutor(String name, int laneCount, int queueCapacity, int maxBatch,
+                               Consumer<List<T>> handler) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        this.maxBatch = maxBatch;
+        this.handler = handler;
+        this.lanes = start(laneCount, null);
+    }
+
+    /**
+     * 提交任务，所在lane的队列已满时阻塞
+     *
+     * @param hash 分区key的哈希值
+     */
+    public void submit(int hash, T task) throws InterruptedException {
+        resizeLock.readLock().lock();
+        try {
+            Lane<T>[] current = lanes;
+            current[Math.floorMod(spread(hash), current.length)].queue.put(new Item<>(task));
+        } finally {
+            resizeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 调整lane数量，旧lane处理完队列中剩余的任务后退出
+     */
+    public void resize(int laneCount) {
+        if(laneCount <= 0) {
+            throw new IllegalArgumentException("lane数量必须大于0");
+        }
+        resizeLock.writeLock().lock();
+        try {
+            Lane<T>[] old = lanes;
+            if(old.length == laneCount) {
+                return;
+            }
+            lanes = start(laneCount, old);
+            for(Lane<T> lane : old) {
+                lane.closed = true;
+            }
+            log.info("[{}] lane数量调整: {} -> {}", name, old.length, laneCount);
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+    }
+
+    public int laneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * 每个lane的积压和延迟：队列深度、队首等待时间、最近一批的等待时间、处理数量
+     */
+    public List<Map<String, Object>> stats() {
+        Lane<T>[] current = lanes;
+        List<Map<String, Object>> stats = new ArrayList<>(current.length);
+        long now = System.currentTimeMillis();
+        for(int i = 0; i < current.length; i++) {
+            Lane<T> lane = current[i];
+            Item<T> head = lane.queue.peek();
+            long batches = lane.batches.sum();
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("lane", i);
+            stat.put("queueDepth", lane.queue.size());
+            stat.put("headAgeMillis", head == null ? 0 : now - head.enqueuedAt);
+            stat.put("lastLagMillis", lane.lastLagMillis);
+            stat.put("processed", lane.processed.sum());
+            stat.put("batches", batches);
+            stat.put("failed", lane.failed.sum());
+            stat.put("avgBatchMicros", batches == 0 ? 0 : lane.totalBatchMicros.sum() / batches);
+            stats.add(stat);
+        }
+        return stats;
+    }
+
+    /**
+     * 停止接收任务，等待各lane处理完队列中的任务
+     */
+    public void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        Lane<T>[] current;
+        resizeLock.writeLock().lock();
+        try {
+            current = lanes;
+            for(Lane<T> lane : current) {
+                lane.closed = true;
+            }
+        } finally {
+            resizeLock.writeLock().unlock();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(Lane<T> lane : current) {
+            lane.terminated.await(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Lane<T>[] start(int laneCount, Lane<T>[] previous) {
+        generation++;
+        Lane<T>[] started = new Lane[laneCount];
+        for(int i = 0; i < laneCount; i++) {
+            Lane<T> lane = new Lane<>(queueCapacity);
+            started[i] = lane;
+            Thread thread = new Thread(() -> runLane(lane, previous), name + "-" + generation + "-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return started;
+    }
+
+    private void runLane(Lane<T> lane, Lane<T>[] previous) {
+        try {
+            // 等待旧lane处理完，避免同一key的任务在新旧lane上并发执行
+            if(previous != null) {
+                for(Lane<T> old : previous) {
+                    old.terminated.await();
+                }
+            }
+            List<Item<T>> items = new ArrayList<>(maxBatch);
+            List<T> tasks = new ArrayList<>(maxBatch);
+            while(true) {
+                Item<T> first = lane.queue.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    if(lane.closed && lane.queue.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                items.add(first);
+                lane.queue.drainTo(items, maxBatch - 1);
+                for(Item<T> item : items) {
+                    tasks.add(item.task);
+                }
+                long start = System.nanoTime();
+                lane.lastLagMillis = System.currentTimeMillis() - first.enqueuedAt;
+                try {
+                    handler.accept(tasks);
+                } catch(Exception e) {
+                    lane.failed.add(tasks.size());
+                    log.error("[{}] lane处理失败, 数量: {}", name, tasks.size(), e);
+                }
+                lane.processed.add(tasks.size());
+                lane.batches.increment();
+                lane.totalBatchMicros.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+                items.clear();
+                tasks.clear();
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lane.terminated.countDown();
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Lane<T> {
+        private final BlockingQueue<Item<T>> queue;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private final LongAdder processed = new LongAdder();
+        private final LongAdder batches = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder totalBatchMicros = new LongAdder();
+        private volatile long lastLagMillis;
+        private volatile boolean closed;
+
+        private Lane(int queueCapacity) {
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+    }
+
+    private static class Item<T> {
+        private final T task;
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        private Item(T task) {
+            this.task = task;
+        }
+    }
+}
@@ -1,39 +1,158 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
  * 使用Redis，并基于雪花算法生成唯一的ID标识码
+ * leaseSize大于1时，每个节点以一次INCRBY租用一段序列号，在本地分配；
+ * 当前段剩余不足1/5时异步租用下一段。ID的位布局不变，与直接INCR生成的ID不会重复
  */
+@Slf4j
 @Component
 public class RedisIDWorker {
     // 开始的时间戳
-    private static final Long BEGIN_TIMESTAMP = 1672531200L;
+    public static final Long BEGIN_TIMESTAMP = 1672531200L;
 
     // 序列号的位数
     private static final int COUNT_BITS = 32;
 
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    // 每次租用的序列号数量，不大于1时每次生成ID都执行INCR
+    @Value("${hmdp.id.lease-size:1000}")
+    private long leaseSize;
+
+    // keyPrefix -> 租用的序列号
+    private final Map<String, Leaser> leasers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     public Long nextID(String keyPrefix) {
         // 生成时间戳
-        long now = LocalDateTime.now().toEpochSecond(ZoneOffset.UTC);
+        LocalDateTime dateTime = LocalDateTime.now();
+        long now = dateTime.toEpochSecond(ZoneOffset.UTC);
         long time = now - BEGIN_TIMESTAMP;
 
         // 生成机器序列码
-        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String date = dateTime.format(DATE_FORMATTER);
+        long count;
+        if(leaseSize > 1) {
+            count = leasers.computeIfAbsent(keyPrefix, Leaser::new).next(date);
+        } else {
+            count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        }
 
         // 拼接返回
         return time << COUNT_BITS | count;
     }
 
+    @PreDestroy
+    private void shutdown() {
+        prefetchExecutor.shutdownNow();
+    }
+
+    /**
+     * 一段租用的序列号[cursor, end]，只在date当天有效
+     */
+    private static class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long end;
+
+        private Segment(String date, long start, long end) {
+            this.date = date;
+            this.cursor = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    /**
+     * 一个keyPrefix的序列号租用
+     */
+    private class Leaser {
+        private final String keyPrefix;
+        private volatile Segment current;
+        // 预取的下一段
+        private CompletableFuture<Segment> prefetched;
+
+        private Leaser(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(String date) {
+            while(true) {
+                Segment segment = current;
+                if(segment != null && segment.date.equals(date)) {
+                    long count = segment.cursor.getAndIncrement();
+                    if(count <= segment.end) {
+                        if(segment.end - count == leaseSize / 5) {
+                            prefetch(date);
+                        }
+                        return count;
+                    }
+                }
+                synchronized(this) {
+                    if(current == segment) {
+                        current = take(date);
+                    }
+                }
+            }
+        }
+
+        private synchronized void prefetch(String date) {
+            if(prefetched == null) {
+                prefetched = CompletableFuture.supplyAsync(() -> lease(date), prefetchExecutor);
+            }
+        }
+
+        /**
+         * 取出预取的段；没有预取、预取失败或已跨天时同步租用
+         */
+        private Segment take(String date) {
+            CompletableFuture<Segment> future = prefetched;
+            prefetched = null;
+            if(future != null) {
+                try {
+                    Segment segment = future.join();
+                    if(segment.date.equals(date)) {
+                        return segment;
+                    }
+                } catch(Exception e) {
+                    log.warn("预取ID段失败, keyPrefix: {}", keyPrefix, e);
+                }
+            }
+            return lease(date);
+        }
+
+        private Segment lease(String date) {
+            Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, leaseSize);
+            if(end == null) {
+                throw new IllegalStateException("租用ID段失败: " + keyPrefix);
+            }
+            return new Segment(date, end - leaseSize + 1, end);
+        }
+    }
 }
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 秒杀下单用户的编码，创建优惠券时确定，保存在优惠券元数据的buyers字段中
+ * 1. set：下单用户key为用户id的集合
+ * 2. bitmap：按用户id分块的位图，每块CHUNK_BITS位，保存在 下单用户key:块号 中，只创建有用户的块；
+ *    下单用户key:n 记录用户数。与lua脚本中的编码一致
+ */
+public class SeckillBuyers {
+    public static final String SET = "set";
+    public static final String BITMAP = "bitmap";
+
+    public static final long CHUNK_BITS = 65536;
+
+    public static String chunkKey(String orderKey, long userId) {
+        return orderKey + ":" + userId / CHUNK_BITS;
+    }
+
+    public static long offset(long userId) {
+        return userId % CHUNK_BITS;
+    }
+
+    public static String countKey(String orderKey) {
+        return orderKey + ":n";
+    }
+
+    /**
+     * 脚本中用户所在的位图块和下单用户数的key，与下单用户key共用hash tag
+     */
+    public static List<String> keys(String orderKey, long userId) {
+        return Arrays.asList(chunkKey(orderKey, userId), countKey(orderKey));
+    }
+}
@@ -0,0 +1,111 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀请求的本地拦截，注定失败的请求不访问Redis
+ * 1. 售罄标记：脚本返回库存不足后在本节点标记，并通过pub/sub通知其他节点；标记有有效期，库存恢复时可提前清除
+ * 2. 已购买用户：脚本返回成功或重复下单后记录，每张优惠券一个有界的本地缓存，只在本节点生效；
+ *    订单取消后清除本节点的记录，其他节点的记录在有效期后过期
+ */
+@Component
+public class SeckillLocalGate {
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // voucherId -> 售罄标记的过期时间
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    // voucherId -> 已购买用户
+    private final Map<Long, LocalCache> bought = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.seckill.gate.sold-out-ttl-seconds:30}")
+    private long soldOutTtlSeconds;
+    @Value("${hmdp.seckill.gate.bought-max-size:10000}")
+    private int boughtMaxSize;
+    @Value("${hmdp.seckill.gate.bought-ttl-minutes:30}")
+    private long boughtTtlMinutes;
+
+    public SeckillLocalGate(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 是否已知售罄
+     */
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOut.get(voucherId);
+        if(expireAt == null) {
+            return false;
+        }
+        if(expireAt < System.currentTimeMillis()) {
+            soldOut.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄，并通知所有节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if(soldOut.containsKey(voucherId)) {
+            return;
+        }
+        markSoldOutLocal(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, voucherId + ":1");
+    }
+
+    /**
+     * 库存恢复后清除售罄标记，并通知所有节点
+     */
+    public void clearSoldOut(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, voucherId + ":0");
+    }
+
+    /**
+     * 仅修改本节点的售罄标记，由售罄消息的监听器调用，消息格式为voucherId:1（售罄）或voucherId:0（清除）
+     */
+    public void onMessage(String message) {
+        int index = message.lastIndexOf(':');
+        if(index <= 0) {
+            return;
+        }
+        Long voucherId = Long.valueOf(message.substring(0, index));
+        if("1".equals(message.substring(index + 1))) {
+            markSoldOutLocal(voucherId);
+        } else {
+            soldOut.remove(voucherId);
+        }
+    }
+
+    private void markSoldOutLocal(Long voucherId) {
+        soldOut.put(voucherId, System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(soldOutTtlSeconds));
+    }
+
+    /**
+     * 本节点是否已知该用户购买过
+     */
+    public boolean hasBought(Long voucherId, Long userId) {
+        LocalCache users = bought.get(voucherId);
+        return users != null && users.get(userId.toString()) != null;
+    }
+
+    public void markBought(Long voucherId, Long userId) {
+        bought.computeIfAbsent(voucherId, id -> new LocalCache(boughtMaxSize, boughtTtlMinutes, TimeUnit.MINUTES))
+                .put(userId.toString(), Boolean.TRUE);
+    }
+
+    public void forgetBought(Long voucherId, Long userId) {
+        LocalCache users = bought.get(voucherId);
+        if(users != null) {
+            users.remove(userId.toString());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀库存分段
+ * 1. 库存不小于minStock的优惠券，库存平均拆分到count个段，每段的库存key和下单用户set使用同一个hash tag，
+ *    不同段落在不同的slot上
+ * 2. 用户按userId哈希固定路由到一个段（home段），一人一单只需在home段判断
+ * 3. 段数在创建优惠券时确定，之后不再变化，本地缓存
+ * 未分段的优惠券，库存key和下单用户key使用优惠券id作为hash tag
+ */
+@Component
+public class SeckillSegments {
+    // 优惠券的段数，不存在表示未分段
+    public static final String SEGMENTS_KEY = "seckill:segments:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // voucherId -> 段数，0表示未分段
+    private final Map<Long, Integer> segments = new ConcurrentHashMap<>();
+
+    @Value("${hmdp.seckill.segment.count:8}")
+    private int segmentCount;
+    @Value("${hmdp.seckill.segment.min-stock:1000}")
+    private int minStock;
+
+    public SeckillSegments(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 库存分段的段数，0表示不分段；创建优惠券时先据此写入元数据，再写入库存
+     */
+    public int plan(int stock) {
+        return segmentCount <= 1 || stock < minStock ? 0 : segmentCount;
+    }
+
+    /**
+     * 创建优惠券时写入Redis库存，库存足够大时分段
+     * 库存key最后写入：脚本读到库存时，元数据和段数都已写入
+     *
+     * @return 段数，0表示未分段
+     */
+    public int initStock(Long voucherId, int stock) {
+        int count = plan(stock);
+        if(count == 0) {
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId), String.valueOf(stock));
+            segments.put(voucherId, 0);
+            return 0;
+        }
+        // 先写入段数，避免请求按未分段路由并缓存
+        stringRedisTemplate.opsForValue().set(SEGMENTS_KEY + voucherId, String.valueOf(count));
+        segments.put(voucherId, count);
+        for(int i = 0; i < count; i++) {
+            int segmentStock = stock / count + (i < stock % count ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(segmentStock));
+        }
+        return count;
+    }
+
+    /**
+     * 优惠券的段数，0表示未分段
+     */
+    public int segments(Long voucherId) {
+        return segments.computeIfAbsent(voucherId, id -> {
+            String count = stringRedisTemplate.opsForValue().get(SEGMENTS_KEY + id);
+            return count == null ? 0 : Integer.parseInt(count);
+        });
+    }
+
+    /**
+     * 用户所属的段
+     */
+    public static int home(Long userId, int segments) {
+        int h = Long.hashCode(userId) * 0x9E3779B9;
+        return Math.floorMod(h ^ (h >>> 16), segments);
+    }
+
+    public static String stockKey(Long voucherId) {
+        return RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + "}";
+    }
+
+    public static String orderKey(Long voucherId) {
+        return RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + "}";
+    }
+
+    public static String stockKey(Long voucherId, int segment) {
+        return RedisConstants.SECKILL_STOCK_KEY + "{" + voucherId + "-" + segment + "}";
+    }
+
+    public static String orderKey(Long voucherId, int segment) {
+        return RedisConstants.SECKILL_ORDER_KEY + "{" + voucherId + "-" + segment + "}";
+    }
+}
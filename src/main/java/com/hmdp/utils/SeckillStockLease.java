@@ -0,0 +1,276 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 秒杀库存的节点租用（未分段的优惠券）
+ * 1. 节点一次从Redis库存中租用leaseSize个库存到本地计数器，库存在本地扣减，
+ *    下单脚本只判断秒杀时间、限购并写入订单，不再访问库存
+ * 2. 本地剩余不足leaseSize/5时异步租用下一批；本地用完且Redis已售罄时，
+ *    exhaustedRetryMillis内不再租用，其他节点归还或订单取消后可再次租用
+ * 3. 秒杀结束后（定期检查结束时间，或脚本返回已结束）及节点关闭时，未用完的库存归还Redis
+ * 4. 超过idleMillis没有扣减时，本地剩余的库存归还Redis，避免流量转移到其他节点后库存滞留在本节点；
+ *    租用不关闭，再次扣减时重新租用
+ * 租用期间Redis中的库存不包括各节点本地未用完的部分
+ */
+@Slf4j
+@Component
+public class SeckillStockLease {
+    private static final DefaultRedisScript<Long> LEASE_SCRIPT;
+
+    static {
+        LEASE_SCRIPT = new DefaultRedisScript<>();
+        LEASE_SCRIPT.setLocation(new ClassPathResource("seckill_lease.lua"));
+        LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillVoucherMeta seckillVoucherMeta;
+
+    // voucherId -> 本节点租用的库存
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "stock-lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Value("${hmdp.seckill.lease.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.lease.size:50}")
+    private long leaseSize;
+    @Value("${hmdp.seckill.lease.exhausted-retry-millis:1000}")
+    private long exhaustedRetryMillis;
+    @Value("${hmdp.seckill.lease.idle-millis:3000}")
+    private long idleMillis;
+
+    public SeckillStockLease(StringRedisTemplate stringRedisTemplate, SeckillVoucherMeta seckillVoucherMeta) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillVoucherMeta = seckillVoucherMeta;
+    }
+
+    @PostConstruct
+    private void init() {
+        if(enabled) {
+            executor.scheduleWithFixedDelay(this::returnExpired, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * 关闭时归还所有未用完的库存
+     */
+    @PreDestroy
+    private void shutdown() {
+        executor.shutdownNow();
+        for(Long voucherId : leases.keySet()) {
+            try {
+                returnLease(voucherId);
+            } catch(Exception e) {
+                log.error("归还租用的库存失败, voucherId: {}", voucherId, e);
+            }
+        }
+    }
+
+    /**
+     * 是否以租用的库存秒杀：已开启，且秒杀未结束
+     */
+    public boolean isActive(Long voucherId) {
+        if(!enabled) {
+            return false;
+        }
+        Lease lease = leases.get(voucherId);
+        if(lease != null) {
+            return !lease.closed;
+        }
+        long end = seckillVoucherMeta.endMillis(voucherId);
+        return end <= 0 || System.currentTimeMillis() <= end;
+    }
+
+    /**
+     * 从本地扣减一个库存，本地用完时同步租用
+     *
+     * @return false表示库存不足
+     */
+    public boolean tryAcquire(Long voucherId) {
+        Lease lease = leases.computeIfAbsent(voucherId, Lease::new);
+        lease.lastAcquired = System.currentTimeMillis();
+        while(true) {
+            long remaining = lease.remaining.get();
+            if(remaining > 0) {
+                if(lease.remaining.compareAndSet(remaining, remaining - 1)) {
+                    if(remaining - 1 == leaseSize / 5) {
+                        refillAsync(lease);
+                    }
+                    return true;
+                }
+                continue;
+            }
+            if(lease.closed || System.currentTimeMillis() < lease.exhaustedUntil) {
+                return false;
+            }
+            synchronized(lease) {
+                if(lease.remaining.get() > 0) {
+                    continue;
+                }
+                if(lease.closed || !lease(lease)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * 下单失败（超过限购、未开始等）时将扣减的库存放回本地
+     */
+    public void release(Long voucherId) {
+        Lease lease = leases.get(voucherId);
+        if(lease == null) {
+            return;
+        }
+        synchronized(lease) {
+            if(lease.closed) {
+                stringRedisTemplate.opsForValue().increment(SeckillSegments.stockKey(voucherId));
+            } else {
+                lease.remaining.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 停止租用，将本地未用完的库存归还Redis
+     */
+    public void returnLease(Long voucherId) {
+        Lease lease = leases.get(voucherId);
+        if(lease == null) {
+            return;
+        }
+        long remaining;
+        synchronized(lease) {
+            lease.closed = true;
+            remaining = lease.remaining.getAndSet(0);
+        }
+        if(remaining > 0) {
+            stringRedisTemplate.opsForValue().increment(SeckillSegments.stockKey(voucherId), remaining);
+            log.info("归还租用的库存, voucherId: {}, 数量: {}", voucherId, remaining);
+        }
+    }
+
+    /**
+     * 各优惠券本地剩余的库存
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        Map<Long, Long> remaining = new LinkedHashMap<>();
+        leases.forEach((voucherId, lease) -> remaining.put(voucherId, lease.remaining.get()));
+        stats.put("remaining", remaining);
+        return stats;
+    }
+
+    private void refillAsync(Lease lease) {
+        if(!lease.refilling.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                synchronized(lease) {
+                    if(!lease.closed) {
+                        lease(lease);
+                    }
+                }
+            } catch(Exception e) {
+                log.warn("预租库存失败, voucherId: {}", lease.voucherId, e);
+            } finally {
+                lease.refilling.set(false);
+            }
+        });
+    }
+
+    /**
+     * 从Redis租用一批库存，持有lease的锁时调用
+     *
+     * @return 是否租用到库存
+     */
+    private boolean lease(Lease lease) {
+        Long count = stringRedisTemplate.execute(LEASE_SCRIPT,
+                Collections.singletonList(SeckillSegments.stockKey(lease.voucherId)),
+                String.valueOf(leaseSize));
+        if(count == null || count <= 0) {
+            lease.exhaustedUntil = System.currentTimeMillis() + exhaustedRetryMillis;
+            return false;
+        }
+        lease.remaining.addAndGet(count);
+        return true;
+    }
+
+    /**
+     * 归还已结束的秒杀的库存，以及空闲超过idleMillis的租用中剩余的库存
+     */
+    private void returnExpired() {
+        long now = System.currentTimeMillis();
+        leases.forEach((voucherId, lease) -> {
+            if(lease.closed) {
+                return;
+            }
+            try {
+                long end = seckillVoucherMeta.endMillis(voucherId);
+                if(end > 0 && now > end) {
+                    returnLease(voucherId);
+                } else if(now - lease.lastAcquired > idleMillis) {
+                    returnIdle(lease);
+                }
+            } catch(Exception e) {
+                log.error("归还租用的库存失败, voucherId: {}", voucherId, e);
+            }
+        });
+    }
+
+    /**
+     * 归还空闲的租用中剩余的库存，不关闭租用
+     */
+    private void returnIdle(Lease lease) {
+        long remaining;
+        synchronized(lease) {
+            remaining = lease.remaining.getAndSet(0);
+        }
+        if(remaining > 0) {
+            stringRedisTemplate.opsForValue().increment(SeckillSegments.stockKey(lease.voucherId), remaining);
+            log.info("归还空闲的租用库存, voucherId: {}, 数量: {}", lease.voucherId, remaining);
+        }
+    }
+
+    private static class Lease {
+        private final Long voucherId;
+        private final AtomicLong remaining = new AtomicLong();
+        private final AtomicBoolean refilling = new AtomicBoolean();
+        // 本地用完且Redis已售罄时，该时间前不再租用
+        private volatile long exhaustedUntil;
+        // 最近一次扣减的时间
+        private volatile long lastAcquired = System.currentTimeMillis();
+        // 秒杀结束或节点关闭后不再租用
+        private volatile boolean closed;
+
+        private Lease(Long voucherId) {
+            this.voucherId = voucherId;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀优惠券的元数据，创建优惠券时写入Redis的hash，lua脚本据此判断秒杀时间和每人限购数量
+ * 字段：total（初始库存）、begin、end（epoch毫秒）、limit（每人限购数量）、buyers（下单用户的编码，见SeckillBuyers）
+ * 分段库存的优惠券在每个段的slot中各写入一份，供各段的脚本读取
+ */
+@Component
+public class SeckillVoucherMeta {
+    public static final String META_KEY = "seckill:voucher:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    // voucherId -> 每人限购数量，创建后不再变化
+    private final Map<Long, Integer> limits = new ConcurrentHashMap<>();
+
+    // voucherId -> 结束时间（epoch毫秒），0表示不限
+    private final Map<Long, Long> ends = new ConcurrentHashMap<>();
+
+    // voucherId -> 下单用户的编码
+    private final Map<Long, String> buyerEncodings = new ConcurrentHashMap<>();
+
+    // 未指定时的每人限购数量
+    @Value("${hmdp.seckill.default-limit:1}")
+    private int defaultLimit;
+
+    // 新建优惠券的下单用户编码：set或bitmap，已创建的优惠券不受影响
+    @Value("${hmdp.seckill.buyer-encoding:set}")
+    private String buyerEncoding;
+
+    public SeckillVoucherMeta(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    /**
+     * 写入元数据
+     *
+     * @param segments 库存的段数，0表示未分段
+     */
+    public void publish(Long voucherId, int stock, LocalDateTime begin, LocalDateTime end, Integer limit,
+                        int segments) {
+        int buyLimit = limit == null || limit <= 0 ? defaultLimit : limit;
+        Map<String, String> meta = new HashMap<>();
+        meta.put("total", String.valueOf(stock));
+        meta.put("begin", String.valueOf(toEpochMilli(begin)));
+        meta.put("end", String.valueOf(toEpochMilli(end)));
+        meta.put("limit", String.valueOf(buyLimit));
+        String encoding = SeckillBuyers.BITMAP.equals(buyerEncoding) ? SeckillBuyers.BITMAP : SeckillBuyers.SET;
+        meta.put("buyers", encoding);
+        stringRedisTemplate.opsForHash().putAll(metaKey(voucherId), meta);
+        for(int i = 0; i < segments; i++) {
+            stringRedisTemplate.opsForHash().putAll(metaKey(voucherId, i), meta);
+        }
+        limits.put(voucherId, buyLimit);
+        ends.put(voucherId, toEpochMilli(end));
+        buyerEncodings.put(voucherId, encoding);
+    }
+
+    /**
+     * 每人限购数量，元数据不存在时（如旧的优惠券）为1
+     */
+    public int limit(Long voucherId) {
+        return limits.computeIfAbsent(voucherId, id -> {
+            Object limit = stringRedisTemplate.opsForHash().get(metaKey(id), "limit");
+            return limit == null ? 1 : Integer.parseInt(limit.toString());
+        });
+    }
+
+    /**
+     * 结束时间（epoch毫秒），元数据不存在或未设置时为0
+     */
+    public long endMillis(Long voucherId) {
+        return ends.computeIfAbsent(voucherId, id -> {
+            Object end = stringRedisTemplate.opsForHash().get(metaKey(id), "end");
+            return end == null ? 0L : Long.parseLong(end.toString());
+        });
+    }
+
+    /**
+     * 下单用户的编码，元数据不存在或未设置时为set
+     */
+    public String buyerEncoding(Long voucherId) {
+        return buyerEncodings.computeIfAbsent(voucherId, id -> {
+            Object encoding = stringRedisTemplate.opsForHash().get(metaKey(id), "buyers");
+            return encoding == null ? SeckillBuyers.SET : encoding.toString();
+        });
+    }
+
+    public boolean bitmapBuyers(Long voucherId) {
+        return SeckillBuyers.BITMAP.equals(buyerEncoding(voucherId));
+    }
+
+    /**
+     * 与未分段的库存key位于同一slot的元数据key
+     */
+    public static String metaKey(Long voucherId) {
+        return META_KEY + "{" + voucherId + "}";
+    }
+
+    /**
+     * 分段库存时，与该段的库存key位于同一slot的元数据key
+     */
+    public static String metaKey(Long voucherId, int segment) {
+        return META_KEY + "{" + voucherId + "-" + segment + "}";
+    }
+
+    /**
+     * 每人限购数量大于1时，记录每个用户购买数量的hash
+     */
+    public static String countKey(Long voucherId) {
+        return "seckill:count:{" + voucherId + "}";
+    }
+
+    public static String countKey(Long voucherId, int segment) {
+        return "seckill:count:{" + voucherId + "-" + segment + "}";
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time == null ? 0 : time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,277 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 秒杀等候室
+ * 1. 用户先领取排队号（每张优惠券一个原子计数器，同一用户重复领取得到同一个号），得到签名的排队凭证
+ * 2. 客户端轮询状态：在本节点验证凭证签名，与本地缓存的放行水位比较，不访问Redis；
+ *    排队号不大于水位时返回有效期为passTtlSeconds的购买通行证
+ * 3. 购买请求必须携带通行证，在拦截器中本地验证，未放行的请求不进入下单流程
+ * 4. 各节点定期以脚本推进Redis中的水位：首次放行 剩余库存 * headroom 个，之后每卖出一个放行一个，
+ *    剩余库存passTtlSeconds内未变化时再放行一批；未分段的优惠券在脚本中读取库存，
+ *    分段的优惠券由节点读取，可能读到旧值，不据此按库存增加放行
+ * 5. 排队号的key在秒杀结束时过期
+ * 凭证和通行证以HMAC-SHA256签名，多节点部署时需配置相同的secret
+ */
+@Slf4j
+@Component
+public class SeckillWaitingRoom {
+    public static final String ROOM_KEY = "seckill:room:";
+    public static final String TICKETS_KEY = "seckill:tickets:";
+
+    private static final DefaultRedisScript<Long> TICKET_SCRIPT;
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> WATERMARK_SCRIPT;
+
+    static {
+        TICKET_SCRIPT = new DefaultRedisScript<>();
+        TICKET_SCRIPT.setLocation(new ClassPathResource("seckill_ticket.lua"));
+        TICKET_SCRIPT.setResultType(Long.class);
+
+        WATERMARK_SCRIPT = new DefaultRedisScript<>();
+        WATERMARK_SCRIPT.setLocation(new ClassPathResource("seckill_watermark.lua"));
+        WATERMARK_SCRIPT.setResultType(List.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final SeckillSegments seckillSegments;
+
+    private final SeckillVoucherMeta seckillVoucherMeta;
+
+    // voucherId -> 本节点缓存的等候室状态，一段时间没有请求后不再刷新
+    private final Map<Long, Room> rooms = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "waiting-room");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ThreadLocal<Mac> macs;
+
+    @Value("${hmdp.seckill.waiting-room.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.waiting-room.headroom:1.5}")
+    private double headroom;
+    @Value("${hmdp.seckill.waiting-room.refresh-millis:200}")
+    private long refreshMillis;
+    @Value("${hmdp.seckill.waiting-room.pass-ttl-seconds:30}")
+    private long passTtlSeconds;
+    @Value("${hmdp.seckill.waiting-room.secret:}")
+    private String secret;
+
+    public SeckillWaitingRoom(StringRedisTemplate stringRedisTemplate, SeckillSegments seckillSegments,
+                              SeckillVoucherMeta seckillVoucherMeta) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.seckillSegments = seckillSegments;
+        this.seckillVoucherMeta = seckillVoucherMeta;
+    }
+
+    @PostConstruct
+    private void init() {
+        if(!enabled) {
+            return;
+        }
+        byte[] key;
+        if(StrUtil.isBlank(secret)) {
+            log.warn("未配置等候室的secret，使用随机密钥，其他节点签发的凭证将无法验证");
+            key = new byte[32];
+            new SecureRandom().nextBytes(key);
+        } else {
+            key = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        SecretKeySpec spec = new SecretKeySpec(key, "HmacSHA256");
+        macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(spec);
+                return mac;
+            } catch(GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 等候室的key使用优惠券的hash tag，与排队号的key在同一slot
+     */
+    public static String roomKey(Long voucherId) {
+        return ROOM_KEY + "{" + voucherId + "}";
+    }
+
+    public static String ticketsKey(Long voucherId) {
+        return TICKETS_KEY + "{" + voucherId + "}";
+    }
+
+    /**
+     * 领取排队号
+     *
+     * @return 排队凭证：排队号.签名
+     */
+    public String takeTicket(Long voucherId, Long userId) {
+        Long ticket = stringRedisTemplate.execute(TICKET_SCRIPT,
+                Arrays.asList(roomKey(voucherId), ticketsKey(voucherId)), userId.toString(),
+                String.valueOf(seckillVoucherMeta.endMillis(voucherId)));
+        touch(voucherId);
+        return ticket + "." + sign("t:" + voucherId + ":" + userId + ":" + ticket);
+    }
+
+    /**
+     * 排队状态：排队号、水位、是否已售罄；已放行时附带购买通行证
+     *
+     * @return 凭证无效时为null
+     */
+    public Map<String, Object> status(Long voucherId, Long userId, String ticketToken) {
+        int index = ticketToken == null ? -1 : ticketToken.indexOf('.');
+        if(index <= 0) {
+            return null;
+        }
+        long ticket;
+        try {
+            ticket = Long.parseLong(ticketToken.substring(0, index));
+        } catch(NumberFormatException e) {
+            return null;
+        }
+        if(!verify("t:" + voucherId + ":" + userId + ":" + ticket, ticketToken.substring(index + 1))) {
+            return null;
+        }
+        Room room = touch(voucherId);
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("ticket", ticket);
+        status.put("watermark", room.watermark);
+        status.put("soldOut", room.refreshed && room.remaining <= 0);
+        boolean admitted = ticket <= room.watermark;
+        status.put("admitted", admitted);
+        if(admitted) {
+            long expireAt = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(passTtlSeconds);
+            status.put("pass", expireAt + "." + sign("p:" + voucherId + ":" + userId + ":" + expireAt));
+        }
+        return status;
+    }
+
+    /**
+     * 验证购买通行证：签名正确且未过期
+     */
+    public boolean admit(Long voucherId, Long userId, String pass) {
+        int index = pass == null ? -1 : pass.indexOf('.');
+        if(index <= 0) {
+            return false;
+        }
+        long expireAt;
+        try {
+            expireAt = Long.parseLong(pass.substring(0, index));
+        } catch(NumberFormatException e) {
+            return false;
+        }
+        return expireAt >= System.currentTimeMillis()
+                && verify("p:" + voucherId + ":" + userId + ":" + expireAt, pass.substring(index + 1));
+    }
+
+    private Room touch(Long voucherId) {
+        Room room = rooms.computeIfAbsent(voucherId, id -> new Room());
+        room.touchedAt = System.currentTimeMillis();
+        return room;
+    }
+
+    /**
+     * 推进最近有请求的优惠券的水位，超过1分钟没有请求的不再刷新
+     */
+    private void refresh() {
+        long now = System.currentTimeMillis();
+        rooms.entrySet().removeIf(entry -> now - entry.getValue().touchedAt > TimeUnit.MINUTES.toMillis(1));
+        rooms.forEach((voucherId, room) -> {
+            try {
+                // 未分段时库存与等候室在同一slot，在脚本中读取
+                int segments = seckillSegments.segments(voucherId);
+                List<String> keys = segments > 0 ? Collections.singletonList(roomKey(voucherId))
+                        : Arrays.asList(roomKey(voucherId), SeckillSegments.stockKey(voucherId));
+                long remaining = segments > 0 ? remaining(voucherId, segments) : 0;
+                List<?> result = stringRedisTemplate.execute(WATERMARK_SCRIPT, keys,
+                        String.valueOf(remaining), String.valueOf(headroom), String.valueOf(now),
+                        String.valueOf(TimeUnit.SECONDS.toMillis(passTtlSeconds)));
+                if(result == null || result.size() < 2) {
+                    return;
+                }
+                room.watermark = (Long) result.get(0);
+                room.remaining = (Long) result.get(1);
+                room.refreshed = true;
+            } catch(Exception e) {
+                log.warn("刷新等候室水位失败, voucherId: {}", voucherId, e);
+            }
+        });
+    }
+
+    /**
+     * Redis中分段库存的各段之和
+     */
+    private long remaining(Long voucherId, int segments) {
+        List<String> keys = new ArrayList<>(segments);
+        for(int i = 0; i < segments; i++) {
+            keys.add(SeckillSegments.stockKey(voucherId, i));
+        }
+        long remaining = 0;
+        List<String> stocks = stringRedisTemplate.opsForValue().multiGet(keys);
+        if(stocks != null) {
+            for(String stock : stocks) {
+                remaining += stock == null ? 0 : Math.max(Long.parseLong(stock), 0);
+            }
+        }
+        return remaining;
+    }
+
+    private String sign(String data) {
+        byte[] digest = macs.get().doFinal(data.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+    }
+
+    private boolean verify(String data, String signature) {
+        return MessageDigest.isEqual(sign(data).getBytes(StandardCharsets.UTF_8),
+                signature.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static class Room {
+        private volatile long watermark;
+        private volatile long remaining;
+        // 是否已从Redis刷新过
+        private volatile boolean refreshed;
+        private volatile long touchedAt;
+    }
+}
@@ -0,0 +1,190 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 分层时间轮
+ * 1. 每层wheelSize个桶，第一层每个桶跨度tickMillis，上一层的桶跨度为下一层整层的跨度；
+ *    超出当前层范围的任务放入上一层，上一层按需创建
+ * 2. 只有非空的桶放入DelayQueue，poll阻塞到最早的桶到期，不需要空转推进
+ * 3. 上层的桶到期后其中的任务重新放入时间轮，降级到下层的桶，或已到期直接返回
+ * 精度为tickMillis，任务在其到期时间所在tick的起点返回
+ */
+public class TimingWheel<T> {
+    private final long tickMillis;
+    private final int wheelSize;
+
+    // 所有层共用，保存非空的桶
+    private final DelayQueue<Bucket<T>> queue = new DelayQueue<>();
+
+    private final Level<T> root;
+
+    private int size;
+
+    public TimingWheel(long tickMillis, int wheelSize) {
+        if(tickMillis <= 0 || wheelSize <= 1) {
+            throw new IllegalArgumentException("tickMillis必须大于0，wheelSize必须大于1");
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.root = new Level<>(tickMillis, wheelSize, System.currentTimeMillis());
+    }
+
+    /**
+     * 添加任务
+     *
+     * @param deadline 到期时间（epoch毫秒）
+     * @return 已到期时返回false，由调用方直接执行
+     */
+    public synchronized boolean add(T task, long deadline) {
+        if(!root.add(task, deadline, queue)) {
+            return false;
+        }
+        size++;
+        return true;
+    }
+
+    /**
+     * 等待并取出到期的任务，最多等待timeout
+     *
+     * @return 到期的任务，超时时为空
+     */
+    public List<T> poll(long timeout, TimeUnit unit) throws InterruptedException {
+        List<T> expired = new ArrayList<>();
+        Bucket<T> bucket = queue.poll(timeout, unit);
+        while(bucket != null) {
+            synchronized(this) {
+                root.advance(bucket.expiration);
+                for(Entry<T> entry : bucket.flush()) {
+                    size--;
+                    // 上层的桶中未到期的任务降级到下层
+                    if(!add(entry.task, entry.deadline)) {
+                        expired.add(entry.task);
+                    }
+                }
+            }
+            bucket = queue.poll();
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public long tickMillis() {
+        return tickMillis;
+    }
+
+    public int wheelSize() {
+        return wheelSize;
+    }
+
+    /**
+     * 时间轮的一层
+     */
+    private static class Level<T> {
+        private final long tick;
+        private final int wheelSize;
+        private final long interval;
+        private final Bucket<T>[] buckets;
+        // 当前时间，tick的整数倍
+        private long currentTime;
+        private Level<T> overflow;
+
+        @SuppressWarnings("unchecked")
+        private Level(long tick, int wheelSize, long startTime) {
+            this.tick = tick;
+            this.wheelSize = wheelSize;
+            this.interval = tick * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for(int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket<>();
+            }
+            this.currentTime = startTime - startTime % tick;
+        }
+
+        private boolean add(T task, long deadline, DelayQueue<Bucket<T>> queue) {
+            if(deadline < currentTime + tick) {
+                return false;
+            }
+            if(deadline < currentTime + interval) {
+                long virtualId = deadline / tick;
+                Bucket<T> bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.add(task, deadline);
+                // 桶被重新使用时更新到期时间并放入队列
+                if(bucket.setExpiration(virtualId * tick)) {
+                    queue.offer(bucket);
+                }
+                return true;
+            }
+            if(overflow == null) {
+                overflow = new Level<>(interval, wheelSize, currentTime);
+            }
+            return overflow.add(task, deadline, queue);
+        }
+
+        private void advance(long time) {
+            if(time >= currentTime + tick) {
+                currentTime = time - time % tick;
+                if(overflow != null) {
+                    overflow.advance(currentTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个桶，保存到期时间在同一个tick内的任务
+     */
+    private static class Bucket<T> implements Delayed {
+        private List<Entry<T>> entries = new ArrayList<>();
+        private volatile long expiration = -1;
+
+        private void add(T task, long deadline) {
+            entries.add(new Entry<>(task, deadline));
+        }
+
+        private boolean setExpiration(long expiration) {
+            if(this.expiration == expiration) {
+                return false;
+            }
+            this.expiration = expiration;
+            return true;
+        }
+
+        /**
+         * 取出桶中的全部任务，桶可被重新使用
+         */
+        private List<Entry<T>> flush() {
+            List<Entry<T>> flushed = entries;
+            entries = new ArrayList<>();
+            expiration = -1;
+            return flushed;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(Math.max(expiration - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(expiration, ((Bucket<?>) o).expiration);
+        }
+    }
+
+    private static class Entry<T> {
+        private final T task;
+        private final long deadline;
+
+        private Entry(T task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+}
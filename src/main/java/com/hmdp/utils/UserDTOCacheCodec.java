@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+import org.springframework.stereotype.Component;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * UserDTO的二进制编解码器
+ */
+@Component
+public class UserDTOCacheCodec extends BinaryCacheCodec<UserDTO> {
+
+    @Override
+    public byte id() {
+        return 3;
+    }
+
+    @Override
+    public Class<UserDTO> type() {
+        return UserDTO.class;
+    }
+
+    @Override
+    public void write(UserDTO user, DataOutput out) throws IOException {
+        writeLong(out, user.getId());
+        writeString(out, user.getNickName());
+        writeString(out, user.getIcon());
+    }
+
+    @Override
+    public UserDTO read(DataInput in) throws IOException {
+        UserDTO user = new UserDTO();
+        user.setId(readLong(in));
+        user.setNickName(readString(in));
+        user.setIcon(readString(in));
+        return user;
+    }
+}
@@ -3,26 +3,88 @@
 --- Created by xe85i.
 --- DateTime: 2023/6/1 17:07
 ---
+-- 未分段的优惠券：判断秒杀时间、库存和限购，扣减库存并记录下单用户
+-- KEYS[1]: 库存key  KEYS[2]: 下单用户key  KEYS[3]: 优惠券元数据  KEYS[4]: 用户购买数量hash（限购数量大于1时使用）
+-- KEYS[5]: 用户所在的位图块  KEYS[6]: 下单用户数（下单用户为bitmap编码时使用）
+-- KEYS[1..6]使用优惠券的hash tag，位于同一slot
+-- KEYS[7]: 订单stream  KEYS[8]: 订单状态key，可选：传入时在同一原子操作中写入订单和排队中的状态；
+-- Redis Cluster中与优惠券的key不在同一slot，不传入，由调用方写入
+-- ARGV[1]: 用户id  ARGV[2]: 优惠券id  ARGV[3]: 订单id（RedisIDWorker生成）
+-- ARGV[4]: 为'1'时库存已从本节点租用的库存中扣减，不再判断和扣减Redis中的库存
+-- ARGV[5]: 订单状态记录的有效期（秒）
+-- 返回 0：成功  1：库存不足  2：超过限购  3：秒杀尚未开始  4：秒杀已经结束
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local metaKey = KEYS[3]
+local countKey = KEYS[4]
+local chunkKey = KEYS[5]
+local buyersKey = KEYS[6]
 
-local voucherID = ARGV[1]
-local userID = ARGV[2]
+local userID = ARGV[1]
+local voucherID = ARGV[2]
+local orderID = ARGV[3]
+local leased = ARGV[4] == '1'
+local statusTtl = tonumber(ARGV[5])
 
-local stockKey = 'seckill:stock:' .. voucherID
+-- 下单用户的编码：set为用户id的集合；bitmap为按用户id分块的位图，每块65536位，见SeckillBuyers
+local function isBuyer(bitmap)
+    if (bitmap) then
+        return redis.call('getbit', chunkKey, tonumber(userID) % 65536) == 1
+    end
+    return redis.call('sismember', orderKey, userID) == 1
+end
+
+local function addBuyer(bitmap)
+    if (bitmap) then
+        if (redis.call('setbit', chunkKey, tonumber(userID) % 65536, 1) == 0) then
+            redis.call('incr', buyersKey)
+        end
+        return
+    end
+    redis.call('sadd', orderKey, userID)
+end
 
-local orderKey = 'seckill:order:' .. voucherID
+-- 判断秒杀时间，元数据：begin、end（epoch毫秒）、limit（每人限购数量）、buyers（下单用户的编码）
+local time = redis.call('time')
+local nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local meta = redis.call('hmget', metaKey, 'begin', 'end', 'limit', 'buyers')
+if (meta[1] and nowMillis < tonumber(meta[1])) then
+    return 3
+end
+if (meta[2] and tonumber(meta[2]) > 0 and nowMillis > tonumber(meta[2])) then
+    return 4
+end
+local limit = tonumber(meta[3]) or 1
+local bitmap = meta[4] == 'bitmap'
 
 -- 判断库存
-if (tonumber(redis.call('get', stockKey)) <= 0) then
+if (not leased and (tonumber(redis.call('get', stockKey)) or 0) <= 0) then
     return 1
 end
 
-if (redis.call('sismember', orderKey, userID) == 1) then
+-- 判断限购
+if (limit <= 1) then
+    if (isBuyer(bitmap)) then
+        return 2
+    end
+elseif ((tonumber(redis.call('hget', countKey, userID)) or 0) >= limit) then
     return 2
 end
 
 -- 扣除库存
-redis.call('incrby', stockKey, -1)
+if (not leased) then
+    redis.call('incrby', stockKey, -1)
+end
 
 -- 下单（保存用户）
-redis.call('sadd', orderKey, userID)
-return 0
\ No newline at end of file
+addBuyer(bitmap)
+if (limit > 1) then
+    redis.call('hincrby', countKey, userID, 1)
+end
+
+-- 订单写入stream，与扣减库存在同一原子操作中；先写入排队中的状态，避免覆盖消费者写入的结果
+if (#KEYS >= 8) then
+    redis.call('set', KEYS[8], 'q:' .. userID, 'EX', statusTtl)
+    redis.call('xadd', KEYS[7], '*', 'userId', userID, 'voucherId', voucherID, 'id', orderID)
+end
+return 0
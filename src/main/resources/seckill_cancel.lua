@@ -0,0 +1,37 @@
+-- 取消未支付的订单：归还库存，撤销用户的购买资格
+-- KEYS[1]: 库存key  KEYS[2]: 下单用户key  KEYS[3]: 用户购买数量hash（限购数量大于1时使用）
+-- KEYS[4]: 下单用户数  KEYS[5..]: 每个用户所在的位图块，与ARGV[3..]一一对应（下单用户为bitmap编码时使用）
+-- 分段库存时为用户所属段的key，位于同一slot
+-- ARGV[1]: 每人限购数量  ARGV[2]: 下单用户的编码（set或bitmap）
+-- ARGV[3..]: 每个取消订单的用户id（同一用户多个订单时重复出现）
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local countKey = KEYS[3]
+local buyersKey = KEYS[4]
+local limit = tonumber(ARGV[1])
+local bitmap = ARGV[2] == 'bitmap'
+
+local function removeBuyer(i)
+    local userID = ARGV[i]
+    if (bitmap) then
+        if (redis.call('setbit', KEYS[i + 2], tonumber(userID) % 65536, 0) == 1) then
+            redis.call('decr', buyersKey)
+        end
+        return
+    end
+    redis.call('srem', orderKey, userID)
+end
+
+redis.call('incrby', stockKey, #ARGV - 2)
+for i = 3, #ARGV do
+    local userID = ARGV[i]
+    if (limit > 1) then
+        if (redis.call('hincrby', countKey, userID, -1) <= 0) then
+            redis.call('hdel', countKey, userID)
+            removeBuyer(i)
+        end
+    else
+        removeBuyer(i)
+    end
+end
+return 0
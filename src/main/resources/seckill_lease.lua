@@ -0,0 +1,11 @@
+-- 节点从Redis库存中租用一批库存
+-- KEYS[1]: 库存key
+-- ARGV[1]: 租用数量
+-- 返回实际租用的数量，库存不足时租用剩余的全部，0表示已售罄
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+local count = math.min(stock, tonumber(ARGV[1]))
+redis.call('incrby', KEYS[1], -count)
+return count
@@ -0,0 +1,16 @@
+-- 修正Redis库存（未分段、一人一单的优惠券）：库存 = 初始库存 - 下单用户数
+-- KEYS[1]: 库存key  KEYS[2]: 下单用户key  KEYS[3]: 下单用户数（下单用户为bitmap编码时使用）
+-- ARGV[1]: 初始库存  ARGV[2]: 下单用户的编码（set或bitmap）
+-- 返回修正后的库存
+local buyers
+if (ARGV[2] == 'bitmap') then
+    buyers = tonumber(redis.call('get', KEYS[3])) or 0
+else
+    buyers = redis.call('scard', KEYS[2])
+end
+local stock = tonumber(ARGV[1]) - buyers
+if (stock < 0) then
+    stock = 0
+end
+redis.call('set', KEYS[1], stock)
+return stock
@@ -0,0 +1,66 @@
+-- 分段库存：在用户所属的段（home）判断秒杀时间、限购并扣减库存
+-- KEYS[1]: home段的库存key  KEYS[2]: home段的下单用户key（set或位图，见优惠券元数据的buyers）
+-- KEYS[3]: home段的优惠券元数据  KEYS[4]: home段的用户购买数量hash（限购数量大于1时使用）
+-- KEYS[5]: 用户所在的位图块  KEYS[6]: 下单用户数（下单用户为bitmap编码时使用）
+-- 所有key使用home段的hash tag，位于同一slot
+-- ARGV[1]: 用户id
+-- 返回 0：成功  2：超过限购  3：秒杀尚未开始  4：秒杀已经结束
+--      5：home段库存不足，已保留购买资格，由调用方从其他段扣减
+local stockKey = KEYS[1]
+local orderKey = KEYS[2]
+local metaKey = KEYS[3]
+local countKey = KEYS[4]
+local chunkKey = KEYS[5]
+local buyersKey = KEYS[6]
+local userID = ARGV[1]
+
+-- 下单用户的编码：set为用户id的集合；bitmap为按用户id分块的位图，每块65536位，见SeckillBuyers
+local function isBuyer(bitmap)
+    if (bitmap) then
+        return redis.call('getbit', chunkKey, tonumber(userID) % 65536) == 1
+    end
+    return redis.call('sismember', orderKey, userID) == 1
+end
+
+local function addBuyer(bitmap)
+    if (bitmap) then
+        if (redis.call('setbit', chunkKey, tonumber(userID) % 65536, 1) == 0) then
+            redis.call('incr', buyersKey)
+        end
+        return
+    end
+    redis.call('sadd', orderKey, userID)
+end
+
+local time = redis.call('time')
+local nowMillis = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+local meta = redis.call('hmget', metaKey, 'begin', 'end', 'limit', 'buyers')
+if (meta[1] and nowMillis < tonumber(meta[1])) then
+    return 3
+end
+if (meta[2] and tonumber(meta[2]) > 0 and nowMillis > tonumber(meta[2])) then
+    return 4
+end
+local limit = tonumber(meta[3]) or 1
+local bitmap = meta[4] == 'bitmap'
+
+-- 同一用户总是路由到同一个段，在该段记录即可保证跨段的限购
+if (limit <= 1) then
+    if (isBuyer(bitmap)) then
+        return 2
+    end
+elseif ((tonumber(redis.call('hget', countKey, userID)) or 0) >= limit) then
+    return 2
+end
+
+addBuyer(bitmap)
+if (limit > 1) then
+    redis.call('hincrby', countKey, userID, 1)
+end
+
+local stock = tonumber(redis.call('get', stockKey))
+if (stock ~= nil and stock > 0) then
+    redis.call('incrby', stockKey, -1)
+    return 0
+end
+return 5
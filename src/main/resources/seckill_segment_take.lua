@@ -0,0 +1,9 @@
+-- 分段库存：home段库存不足时，从其他段扣减一个库存
+-- KEYS[1]: 段的库存key
+-- 返回 0：成功  1：该段库存不足
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 1
+end
+redis.call('incrby', KEYS[1], -1)
+return 0
@@ -0,0 +1,18 @@
+-- 发放排队号，同一用户重复领取时返回原来的排队号
+-- KEYS[1]: 等候室hash  KEYS[2]: 用户 -> 排队号的hash
+-- ARGV[1]: 用户id  ARGV[2]: 秒杀结束时间（epoch毫秒），大于0时未设置过期的key在该时间过期
+local ticket = redis.call('hget', KEYS[2], ARGV[1])
+if (ticket) then
+    return tonumber(ticket)
+end
+ticket = redis.call('hincrby', KEYS[1], 'issued', 1)
+redis.call('hset', KEYS[2], ARGV[1], ticket)
+local expireAt = tonumber(ARGV[2]) or 0
+if (expireAt > 0) then
+    for _, key in ipairs(KEYS) do
+        if (redis.call('pttl', key) == -1) then
+            redis.call('pexpireat', key, expireAt)
+        end
+    end
+end
+return ticket
@@ -0,0 +1,47 @@
+-- 推进等候室的放行水位，排队号不大于水位的用户可以购买
+-- KEYS[1]: 等候室hash，字段：watermark、remaining（上次的剩余库存）、progressAt（剩余库存上次变化的时间）
+-- KEYS[2]: 库存key，可选：未分段的优惠券与等候室使用同一hash tag，在脚本中读取剩余库存
+-- ARGV[1]: 剩余库存（未传入KEYS[2]时使用，由调用方读取）  ARGV[2]: 放行倍数
+-- ARGV[3]: 当前时间（毫秒）  ARGV[4]: 放行后未购买的等待时间（毫秒）
+-- 1. 首次放行 剩余库存 * 倍数 个
+-- 2. 每卖出一个库存放行一个；库存增加（订单取消、归还租用）时按倍数放行
+-- 3. 剩余库存超过等待时间未变化时，认为已放行的用户放弃购买，再放行一批
+-- 调用方读取的剩余库存可能比其他节点上次写入的旧，偏大的值会被误认为库存增加，
+-- 因此只有在脚本中读取时才按库存增加放行，否则忽略增加，由第3条放行
+-- 返回 {水位, 剩余库存}
+local headroom = tonumber(ARGV[2])
+local now = tonumber(ARGV[3])
+local wait = tonumber(ARGV[4])
+local remaining
+local trusted = #KEYS >= 2
+if (trusted) then
+    remaining = math.max(tonumber(redis.call('get', KEYS[2])) or 0, 0)
+else
+    remaining = tonumber(ARGV[1])
+end
+
+local room = redis.call('hmget', KEYS[1], 'watermark', 'remaining', 'progressAt')
+local watermark = tonumber(room[1])
+local last = tonumber(room[2])
+local progressAt = tonumber(room[3]) or now
+
+if (watermark ~= nil and remaining > last and not trusted) then
+    remaining = last
+end
+
+if (watermark == nil) then
+    watermark = math.ceil(remaining * headroom)
+    progressAt = now
+elseif (remaining < last) then
+    watermark = watermark + (last - remaining)
+    progressAt = now
+elseif (remaining > last) then
+    watermark = watermark + math.ceil((remaining - last) * headroom)
+    progressAt = now
+elseif (remaining > 0 and now - progressAt >= wait) then
+    watermark = watermark + math.ceil(remaining * headroom)
+    progressAt = now
+end
+
+redis.call('hset', KEYS[1], 'watermark', watermark, 'remaining', remaining, 'progressAt', progressAt)
+return {watermark, remaining}
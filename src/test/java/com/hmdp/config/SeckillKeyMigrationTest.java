@@ -0,0 +1,94 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.SeckillBuyers;
+import com.hmdp.utils.SeckillSegments;
+import com.hmdp.utils.SeckillVoucherMeta;
+import com.hmdp.utils.SeckillWaitingRoom;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SeckillKeyMigrationTest {
+    private static final Long VOUCHER_ID = 7L;
+
+    @Test
+    void legacyKeysMapToTaggedKeys() {
+        assertEquals(SeckillSegments.stockKey(VOUCHER_ID), SeckillKeyMigration.taggedKey("seckill:stock:7"));
+        assertEquals(SeckillSegments.orderKey(VOUCHER_ID), SeckillKeyMigration.taggedKey("seckill:order:7"));
+        assertEquals(SeckillVoucherMeta.metaKey(VOUCHER_ID), SeckillKeyMigration.taggedKey("seckill:voucher:7"));
+        assertEquals(SeckillVoucherMeta.countKey(VOUCHER_ID), SeckillKeyMigration.taggedKey("seckill:count:7"));
+        assertEquals(SeckillWaitingRoom.roomKey(VOUCHER_ID), SeckillKeyMigration.taggedKey("seckill:room:7"));
+        assertEquals(SeckillWaitingRoom.ticketsKey(VOUCHER_ID), SeckillKeyMigration.taggedKey("seckill:tickets:7"));
+        // bitmap编码的块和用户数计数器
+        long userId = SeckillBuyers.CHUNK_BITS * 3 + 5;
+        assertEquals(SeckillBuyers.chunkKey(SeckillSegments.orderKey(VOUCHER_ID), userId),
+                SeckillKeyMigration.taggedKey("seckill:order:7:3"));
+        assertEquals(SeckillBuyers.countKey(SeckillSegments.orderKey(VOUCHER_ID)),
+                SeckillKeyMigration.taggedKey("seckill:order:7:n"));
+    }
+
+    @Test
+    void taggedAndUnrelatedKeysAreNotMigrated() {
+        assertNull(SeckillKeyMigration.taggedKey(SeckillSegments.stockKey(VOUCHER_ID)));
+        assertNull(SeckillKeyMigration.taggedKey(SeckillSegments.stockKey(VOUCHER_ID, 2)));
+        assertNull(SeckillKeyMigration.taggedKey(SeckillBuyers.countKey(SeckillSegments.orderKey(VOUCHER_ID, 2))));
+        assertNull(SeckillKeyMigration.taggedKey(SeckillSegments.SEGMENTS_KEY + VOUCHER_ID));
+        assertNull(SeckillKeyMigration.taggedKey(SeckillKeyMigration.MIGRATED_KEY));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void migrateRenamesLegacyKeysAndKeepsExistingTaggedKeys() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        ValueOperations<String, String> value = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(value);
+        Cursor<byte[]> cursor = cursor("seckill:stock:7", "seckill:stock:{8}", "seckill:order:7", "seckill:segments:7");
+        RedisConnection connection = mock(RedisConnection.class);
+        when(connection.scan(any(ScanOptions.class))).thenReturn(cursor);
+        when(redis.execute(any(RedisCallback.class)))
+                .thenAnswer(invocation -> ((RedisCallback<Object>) invocation.getArgument(0)).doInRedis(connection));
+        when(redis.renameIfAbsent("seckill:stock:7", "seckill:stock:{7}")).thenReturn(true);
+        // 新key已存在
+        when(redis.renameIfAbsent("seckill:order:7", "seckill:order:{7}")).thenReturn(false);
+        when(redis.hasKey("seckill:order:7")).thenReturn(true);
+        SeckillKeyMigration migration = new SeckillKeyMigration();
+        ReflectionTestUtils.setField(migration, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(migration, "scanCount", 100L);
+
+        assertEquals(1, migration.migrate());
+
+        verify(redis, never()).renameIfAbsent(eq("seckill:stock:{8}"), anyString());
+        verify(redis, never()).renameIfAbsent(eq("seckill:segments:7"), anyString());
+        verify(value).set(eq(SeckillKeyMigration.MIGRATED_KEY), anyString());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Cursor<byte[]> cursor(String... keys) {
+        List<String> list = Arrays.asList(keys);
+        Iterator<String> iterator = list.iterator();
+        Cursor<byte[]> cursor = mock(Cursor.class);
+        when(cursor.hasNext()).thenAnswer(invocation -> iterator.hasNext());
+        when(cursor.next()).thenAnswer(invocation -> iterator.next().getBytes(StandardCharsets.UTF_8));
+        return cursor;
+    }
+}
@@ -0,0 +1,44 @@
+package com.hmdp.interceptor;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdminInterceptorTest {
+
+    @Test
+    void matchingTokenIsAllowed() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(new AdminInterceptor("secret").preHandle(request("secret"), response, null));
+        assertEquals(200, response.getStatus());
+    }
+
+    @Test
+    void wrongOrMissingTokenIsRejected() throws Exception {
+        AdminInterceptor interceptor = new AdminInterceptor("secret");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertFalse(interceptor.preHandle(request("other"), response, null));
+        assertEquals(403, response.getStatus());
+        assertFalse(interceptor.preHandle(request(null), new MockHttpServletResponse(), null));
+    }
+
+    @Test
+    void unconfiguredTokenRejectsAll() throws Exception {
+        assertFalse(new AdminInterceptor("").preHandle(request(""), new MockHttpServletResponse(), null));
+        assertFalse(new AdminInterceptor(null).preHandle(request("secret"), new MockHttpServletResponse(), null));
+    }
+
+    private static MockHttpServletRequest request(String token) {
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/voucher-order/lanes/8");
+        if(token != null) {
+            request.addHeader(AdminInterceptor.TOKEN_HEADER, token);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,144 @@
+package com.hmdp.service.impl;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 在预置了SEEDED条订单的表上，对比逐条（先count判断一人一单再insert）与批量INSERT IGNORE写入的吞吐，
+ * 以及重复投递的订单被忽略的耗时。
+ * 逐条写入使用去掉uk_user_voucher的表，与改为INSERT IGNORE之前的表结构一致；批量写入使用带唯一索引的表。
+ * 两张表都由tb_voucher_order复制，结束后删除。运行：
+ * mvn test -Dtest=OrderPersistenceBenchmark -Dbenchmark=true
+ *   -Dbenchmark.jdbc.url=jdbc:mysql://127.0.0.1:3306/hmdp -Dbenchmark.jdbc.user=root -Dbenchmark.jdbc.password=...
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class OrderPersistenceBenchmark {
+    private static final String BEFORE = "bench_voucher_order_before";
+    private static final String AFTER = "bench_voucher_order_after";
+    private static final long VOUCHER_ID = 999_999_999L;
+    private static final int SEEDED = 100_000;
+    private static final int ORDERS = 5_000;
+    private static final int BATCH_SIZE = 100;
+
+    @Test
+    void compareOrderPersistence() throws SQLException {
+        try(Connection connection = DriverManager.getConnection(
+                System.getProperty("benchmark.jdbc.url", "jdbc:mysql://127.0.0.1:3306/hmdp"),
+                System.getProperty("benchmark.jdbc.user", "root"),
+                System.getProperty("benchmark.jdbc.password", ""))) {
+            try {
+                createTables(connection);
+                seed(connection, BEFORE);
+                seed(connection, AFTER);
+
+                long start = System.nanoTime();
+                int single = countThenInsert(connection, SEEDED, SEEDED + ORDERS);
+                long singleNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int inserted = insertIgnore(connection, AFTER, SEEDED, SEEDED + ORDERS, BATCH_SIZE);
+                long batchNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                int redelivered = insertIgnore(connection, AFTER, SEEDED, SEEDED + ORDERS, BATCH_SIZE);
+                long redeliverNanos = System.nanoTime() - start;
+
+                assertEquals(ORDERS, single);
+                assertEquals(ORDERS, inserted);
+                assertEquals(0, redelivered);
+                System.out.printf("seeded: %d, orders: %d%n", SEEDED, ORDERS);
+                System.out.printf("count + insert (no unique index): %.0f orders/s%n", ORDERS * 1e9 / singleNanos);
+                System.out.printf("insert ignore (batch %d): %.0f orders/s%n", BATCH_SIZE, ORDERS * 1e9 / batchNanos);
+                System.out.printf("redelivered: %.0f orders/s, inserted %d%n", ORDERS * 1e9 / redeliverNanos,
+                        redelivered);
+            } finally {
+                try(Statement statement = connection.createStatement()) {
+                    statement.execute("DROP TABLE IF EXISTS " + BEFORE);
+                    statement.execute("DROP TABLE IF EXISTS " + AFTER);
+                }
+            }
+        }
+    }
+
+    private static void createTables(Connection connection) throws SQLException {
+        try(Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + BEFORE);
+            statement.execute("DROP TABLE IF EXISTS " + AFTER);
+            statement.execute("CREATE TABLE " + BEFORE + " LIKE tb_voucher_order");
+            statement.execute("ALTER TABLE " + BEFORE + " DROP INDEX uk_user_voucher");
+            statement.execute("CREATE TABLE " + AFTER + " LIKE tb_voucher_order");
+        }
+    }
+
+    private static void seed(Connection connection, String table) throws SQLException {
+        insertIgnore(connection, table, 0, SEEDED, 1000);
+    }
+
+    /**
+     * 改为INSERT IGNORE之前的写法：每个订单先按用户和优惠券count，没有订单时再insert
+     */
+    private static int countThenInsert(Connection connection, int fromUser, int toUser) throws SQLException {
+        int inserted = 0;
+        try(PreparedStatement count = connection.prepareStatement(
+                "SELECT COUNT(*) FROM " + BEFORE + " WHERE user_id = ? AND voucher_id = ?");
+            PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + BEFORE + " (id, user_id, voucher_id, buy_seq) VALUES (?, ?, ?, 0)")) {
+            for(int userId = fromUser; userId < toUser; userId++) {
+                count.setLong(1, userId);
+                count.setLong(2, VOUCHER_ID);
+                try(ResultSet rs = count.executeQuery()) {
+                    rs.next();
+                    if(rs.getLong(1) > 0) {
+                        continue;
+                    }
+                }
+                insert.setLong(1, orderId(userId));
+                insert.setLong(2, userId);
+                insert.setLong(3, VOUCHER_ID);
+                inserted += insert.executeUpdate();
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * 与VoucherOrderMapper.insertIgnoreBatch相同的多行INSERT IGNORE
+     */
+    private static int insertIgnore(Connection connection, String table, int fromUser, int toUser, int batchSize)
+            throws SQLException {
+        int inserted = 0;
+        for(int from = fromUser; from < toUser; from += batchSize) {
+            int to = Math.min(from + batchSize, toUser);
+            StringBuilder sql = new StringBuilder("INSERT IGNORE INTO ").append(table)
+                    .append(" (id, user_id, voucher_id, buy_seq) VALUES ");
+            for(int userId = from; userId < to; userId++) {
+                sql.append(userId == from ? "" : ",").append("(?, ?, ?, 0)");
+            }
+            try(PreparedStatement insert = connection.prepareStatement(sql.toString())) {
+                int i = 1;
+                for(int userId = from; userId < to; userId++) {
+                    insert.setLong(i++, orderId(userId));
+                    insert.setLong(i++, userId);
+                    insert.setLong(i++, VOUCHER_ID);
+                }
+                inserted += insert.executeUpdate();
+            }
+        }
+        return inserted;
+    }
+
+    private static long orderId(int userId) {
+        return (1L << 40) + userId;
+    }
+}
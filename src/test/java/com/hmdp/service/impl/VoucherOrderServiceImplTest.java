@@ -0,0 +1,224 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.dto.VoucherOrderWriteResult;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.utils.OrderStatusStore;
+import com.hmdp.utils.RedisIDWorker;
+import com.hmdp.utils.SeckillLocalGate;
+import com.hmdp.utils.SeckillSegments;
+import com.hmdp.utils.SeckillVoucherMeta;
+import com.hmdp.utils.UserHolder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.SetOperations;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VoucherOrderServiceImplTest {
+    private static final Long VOUCHER_ID = 1L;
+    private static final Long USER_ID = 100L;
+
+    private VoucherOrderMapper orderMapper;
+    private SeckillVoucherMapper voucherMapper;
+    private VoucherOrderServiceImpl service;
+
+    @BeforeEach
+    void setUp() {
+        orderMapper = mock(VoucherOrderMapper.class);
+        voucherMapper = mock(SeckillVoucherMapper.class);
+        // 扣减和归还库存都成功
+        when(voucherMapper.update(any(), any())).thenReturn(1);
+        SeckillVoucherServiceImpl seckillVoucherService = new SeckillVoucherServiceImpl();
+        ReflectionTestUtils.setField(seckillVoucherService, "baseMapper", voucherMapper);
+        SeckillVoucherMeta meta = mock(SeckillVoucherMeta.class);
+        when(meta.limit(VOUCHER_ID)).thenReturn(1);
+
+        service = new VoucherOrderServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", orderMapper);
+        ReflectionTestUtils.setField(service, "seckillVoucherService", seckillVoucherService);
+        ReflectionTestUtils.setField(service, "seckillVoucherMeta", meta);
+    }
+
+    @AfterEach
+    void tearDown() {
+        UserHolder.removeUser();
+    }
+
+    @Test
+    void inBatchDuplicateIsReturned() {
+        VoucherOrder first = order(10L, 100L);
+        VoucherOrder second = order(11L, 100L);
+        when(orderMapper.insertIgnoreBatch(anyList())).thenReturn(1);
+
+        VoucherOrderWriteResult result = service.createVoucherOrders(Arrays.asList(first, second));
+
+        assertEquals(Collections.singletonList(second), result.getDuplicated());
+        assertTrue(result.getRejected().isEmpty());
+        assertEquals(Collections.singletonList(first), inserted());
+    }
+
+    @Test
+    void redeliveredOrderIsNotDuplicate() {
+        VoucherOrder first = order(10L, 100L);
+        VoucherOrder copy = order(10L, 100L);
+        when(orderMapper.insertIgnoreBatch(anyList())).thenReturn(1);
+
+        VoucherOrderWriteResult result = service.createVoucherOrders(Arrays.asList(first, copy));
+
+        assertTrue(result.getDuplicated().isEmpty());
+        assertTrue(result.getRejected().isEmpty());
+    }
+
+    @Test
+    void orderIgnoredByUniqueIndexIsReturned() {
+        VoucherOrder fresh = order(10L, 100L);
+        VoucherOrder conflicting = order(11L, 200L);
+        VoucherOrder redelivered = order(12L, 300L);
+        // redelivered此前已写入，不再写入；只有fresh被写入，conflicting与用户200的其他订单冲突
+        when(orderMapper.insertIgnoreBatch(anyList())).thenReturn(1);
+        when(orderMapper.selectList(any()))
+                .thenReturn(Collections.singletonList(order(12L, 300L)))
+                .thenReturn(Arrays.asList(order(10L, 100L), order(12L, 300L)));
+
+        VoucherOrderWriteResult result = service.createVoucherOrders(Arrays.asList(fresh, conflicting, redelivered));
+
+        assertEquals(Collections.singletonList(conflicting), result.getDuplicated());
+        assertTrue(result.getRejected().isEmpty());
+        assertEquals(Arrays.asList(fresh, conflicting), inserted());
+        // 扣减2个库存后归还被忽略的1个
+        verify(voucherMapper, times(2)).update(any(), any());
+    }
+
+    @Test
+    void redeliveredOrderDoesNotTakeLastStock() {
+        VoucherOrder redelivered = order(10L, 100L);
+        VoucherOrder fresh = order(11L, 200L);
+        when(orderMapper.selectList(any())).thenReturn(Collections.singletonList(order(10L, 100L)));
+        when(orderMapper.insertIgnoreBatch(anyList())).thenReturn(1);
+
+        VoucherOrderWriteResult result = service.createVoucherOrders(Arrays.asList(redelivered, fresh));
+
+        // 只剩1个库存时，新订单仍能写入
+        assertTrue(result.getRejected().isEmpty());
+        assertTrue(result.getDuplicated().isEmpty());
+        assertEquals(Collections.singletonList(fresh), inserted());
+        verify(voucherMapper, times(1)).update(any(), any());
+    }
+
+    @Test
+    void allRedeliveredSkipsStock() {
+        when(orderMapper.selectList(any())).thenReturn(Collections.singletonList(order(10L, 100L)));
+
+        VoucherOrderWriteResult result = service.createVoucherOrders(Collections.singletonList(order(10L, 100L)));
+
+        assertTrue(result.getRejected().isEmpty());
+        assertTrue(result.getDuplicated().isEmpty());
+        verify(voucherMapper, times(0)).update(any(), any());
+        verify(orderMapper, times(0)).insertIgnoreBatch(anyList());
+    }
+
+    @Test
+    void allInsertedSkipsConflictLookup() {
+        when(orderMapper.insertIgnoreBatch(anyList())).thenReturn(2);
+
+        VoucherOrderWriteResult result = service.createVoucherOrders(Arrays.asList(order(10L, 100L), order(11L, 200L)));
+
+        assertTrue(result.getDuplicated().isEmpty());
+        // 只在扣减前查询一次
+        verify(orderMapper, times(1)).selectList(any());
+    }
+
+    @Test
+    void nullSegmentScriptResultFails() {
+        StringRedisTemplate redis = segmented(3);
+        RedisIDWorker idWorker = mock(RedisIDWorker.class);
+        ReflectionTestUtils.setField(service, "redisIDWorker", idWorker);
+
+        Result result = service.seckillVoucher(VOUCHER_ID);
+
+        assertFalse(result.getSuccess());
+        verify(idWorker, never()).nextID(anyString());
+        verify(redis, never()).opsForStream();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void nullSegmentTakeMovesToNextSegment() {
+        StringRedisTemplate redis = segmented(3);
+        RedisIDWorker idWorker = mock(RedisIDWorker.class);
+        when(idWorker.nextID("order")).thenReturn(99L);
+        ReflectionTestUtils.setField(service, "redisIDWorker", idWorker);
+        when(redis.opsForValue()).thenReturn(mock(ValueOperations.class));
+        when(redis.opsForStream()).thenReturn(mock(StreamOperations.class));
+        RedisScript<Long> segmentScript = script("SEGMENT_SCRIPT");
+        RedisScript<Long> takeScript = script("SEGMENT_TAKE_SCRIPT");
+        int home = SeckillSegments.home(USER_ID, 3);
+        // home段库存不足，下一段返回null，再下一段扣减成功
+        when(redis.execute(eq(segmentScript), anyList(), any())).thenReturn(5L);
+        when(redis.execute(takeScript, Collections.singletonList(SeckillSegments.stockKey(VOUCHER_ID, (home + 2) % 3))))
+                .thenReturn(0L);
+
+        Result result = service.seckillVoucher(VOUCHER_ID);
+
+        assertTrue(result.getSuccess());
+        assertEquals(99L, result.getData());
+    }
+
+    @SuppressWarnings("unchecked")
+    private StringRedisTemplate segmented(int segments) {
+        UserDTO user = new UserDTO();
+        user.setId(USER_ID);
+        UserHolder.saveUser(user);
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.opsForSet()).thenReturn(mock(SetOperations.class));
+        SeckillSegments seckillSegments = mock(SeckillSegments.class);
+        when(seckillSegments.segments(VOUCHER_ID)).thenReturn(segments);
+        ReflectionTestUtils.setField(service, "stringRedisTemplate", redis);
+        ReflectionTestUtils.setField(service, "seckillSegments", seckillSegments);
+        ReflectionTestUtils.setField(service, "seckillLocalGate", mock(SeckillLocalGate.class));
+        ReflectionTestUtils.setField(service, "orderStatusStore", mock(OrderStatusStore.class));
+        return redis;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static RedisScript<Long> script(String name) {
+        return (RedisScript<Long>) ReflectionTestUtils.getField(VoucherOrderServiceImpl.class, name);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<VoucherOrder> inserted() {
+        ArgumentCaptor<List<VoucherOrder>> captor = ArgumentCaptor.forClass(List.class);
+        verify(orderMapper).insertIgnoreBatch(captor.capture());
+        return captor.getValue();
+    }
+
+    private static VoucherOrder order(Long id, Long userId) {
+        return new VoucherOrder().setId(id).setUserId(userId).setVoucherId(VOUCHER_ID);
+    }
+}
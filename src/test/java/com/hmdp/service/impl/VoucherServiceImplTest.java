@@ -0,0 +1,79 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.entity.Voucher;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.service.ISeckillVoucherService;
+import com.hmdp.utils.SeckillSegments;
+import com.hmdp.utils.SeckillVoucherMeta;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class VoucherServiceImplTest {
+    private ValueOperations<String, String> value;
+    private SeckillVoucherMeta meta;
+    private VoucherServiceImpl service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        value = mock(ValueOperations.class);
+        when(redis.opsForValue()).thenReturn(value);
+        SeckillSegments segments = new SeckillSegments(redis);
+        ReflectionTestUtils.setField(segments, "segmentCount", 4);
+        ReflectionTestUtils.setField(segments, "minStock", 1000);
+        meta = mock(SeckillVoucherMeta.class);
+        VoucherMapper mapper = mock(VoucherMapper.class);
+        when(mapper.insert(any())).thenAnswer(invocation -> {
+            invocation.<Voucher>getArgument(0).setId(1L);
+            return 1;
+        });
+
+        service = new VoucherServiceImpl();
+        ReflectionTestUtils.setField(service, "baseMapper", mapper);
+        ReflectionTestUtils.setField(service, "seckillVoucherService", mock(ISeckillVoucherService.class));
+        ReflectionTestUtils.setField(service, "seckillSegments", segments);
+        ReflectionTestUtils.setField(service, "seckillVoucherMeta", meta);
+    }
+
+    @Test
+    void metaIsPublishedBeforeStock() {
+        service.addSeckillVoucher(voucher(100));
+
+        InOrder order = inOrder(meta, value);
+        order.verify(meta).publish(eq(1L), eq(100), any(), any(), any(), eq(0));
+        order.verify(value).set(SeckillSegments.stockKey(1L), "100");
+    }
+
+    @Test
+    void segmentedMetaIsPublishedBeforeSegmentStock() {
+        service.addSeckillVoucher(voucher(4000));
+
+        InOrder order = inOrder(meta, value);
+        order.verify(meta).publish(eq(1L), eq(4000), any(), any(), any(), eq(4));
+        order.verify(value).set(SeckillSegments.SEGMENTS_KEY + 1L, "4");
+        for(int i = 0; i < 4; i++) {
+            order.verify(value).set(SeckillSegments.stockKey(1L, i), "1000");
+        }
+    }
+
+    private static Voucher voucher(int stock) {
+        Voucher voucher = new Voucher();
+        voucher.setStock(stock);
+        voucher.setBeginTime(LocalDateTime.now());
+        voucher.setEndTime(LocalDateTime.now().plusHours(1));
+        return voucher;
+    }
+}
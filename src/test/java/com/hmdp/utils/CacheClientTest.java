@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CacheClientTest {
+    private static final String PREFIX = "hmdp:shop:";
+    private static final String LOGICAL_PREFIX = "hmdp:shop:cache:";
+    private static final String MEMBER = "hmdp:shop:1|hmdp:shop:cache:1";
+
+    private ZSetOperations<String, String> zSet;
+    private HotKeyDetector detector;
+    private CacheClient cacheClient;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        zSet = mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zSet);
+        CacheSerializer serializer = new CacheSerializer(Collections.singletonList(new ShopCacheCodec()));
+        // Redis中的逻辑过期数据未过期
+        byte[] bytes = serializer.serialize(new Shop().setId(1L).setName("shop"),
+                System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(30));
+        when(redis.execute(any(RedisCallback.class))).thenReturn(bytes);
+
+        detector = new HotKeyDetector(redis);
+        ReflectionTestUtils.setField(detector, "sampleRate", 1);
+        ReflectionTestUtils.setField(detector, "threshold", 10);
+        ReflectionTestUtils.setField(detector, "windowSeconds", 10L);
+        ReflectionTestUtils.setField(detector, "coolWindows", 3);
+        cacheClient = new CacheClient(redis, new CacheRebuildExecutor(1, 1, 16), serializer, new CacheMetrics(),
+                detector);
+    }
+
+    @Test
+    void logicalReadsOfPromotedKeyKeepItHot() {
+        cacheClient.enableHotKeyPromotion(PREFIX, LOGICAL_PREFIX);
+        detector.markPromoted("hmdp:shop:1", "hmdp:shop:cache:1");
+
+        for(int i = 0; i < 10; i++) {
+            assertEquals(Long.valueOf(1L), query().getId());
+        }
+
+        assertEquals(10, detector.estimate("hmdp:shop:1"));
+        ReflectionTestUtils.invokeMethod(detector, "onWindow");
+        // 提升时写入一次，窗口结束时仍为热点再刷新一次
+        verify(zSet, times(2)).add(eq("cache:hot:keys"), eq(MEMBER), anyDouble());
+    }
+
+    @Test
+    void localCacheHitsAreCounted() {
+        cacheClient.enableHotKeyPromotion(PREFIX, LOGICAL_PREFIX);
+        cacheClient.enableLocalCache(LOGICAL_PREFIX, 100, 1, TimeUnit.MINUTES);
+
+        for(int i = 0; i < 5; i++) {
+            query();
+        }
+
+        assertEquals(5, detector.estimate("hmdp:shop:1"));
+    }
+
+    @Test
+    void readsAreNotCountedWithoutPromotion() {
+        for(int i = 0; i < 5; i++) {
+            query();
+        }
+
+        assertEquals(0, detector.estimate("hmdp:shop:1"));
+    }
+
+    private Shop query() {
+        return cacheClient.queryByLogical(LOGICAL_PREFIX, 1L, Shop.class, id -> null, "lock:shop:");
+    }
+}
@@ -0,0 +1,107 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.RedisDataDTO;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 对比逻辑过期缓存的JSON编码与二进制编码：每个缓存值的字节数、每次命中的解析耗时
+ * 运行：mvn test -Dtest=CacheCodecBenchmark -Dbenchmark=true
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CacheCodecBenchmark {
+    private static final int SHOPS = 1000;
+    private static final int ROUNDS = 500;
+
+    private final CacheSerializer cacheSerializer =
+            new CacheSerializer(Collections.singletonList(new ShopCacheCodec()));
+
+    @Test
+    void compareCacheCodec() {
+        long expireAt = System.currentTimeMillis() + 30 * 60 * 1000L;
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(30);
+        List<String> jsons = new ArrayList<>(SHOPS);
+        List<byte[]> binaries = new ArrayList<>(SHOPS);
+        long jsonBytes = 0;
+        long binaryBytes = 0;
+        for(int i = 0; i < SHOPS; i++) {
+            Shop shop = shop(i);
+            String json = JSONUtil.toJsonStr(new RedisDataDTO<>(expireTime, shop));
+            byte[] binary = cacheSerializer.serialize(shop, expireAt);
+            jsons.add(json);
+            binaries.add(binary);
+            jsonBytes += json.getBytes(StandardCharsets.UTF_8).length;
+            binaryBytes += binary.length;
+        }
+
+        // 预热后计时
+        parseJson(jsons, ROUNDS / 10);
+        parseBinary(binaries, ROUNDS / 10);
+        long start = System.nanoTime();
+        long jsonSum = parseJson(jsons, ROUNDS);
+        long jsonNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        long binarySum = parseBinary(binaries, ROUNDS);
+        long binaryNanos = System.nanoTime() - start;
+        assertEquals(jsonSum, binarySum);
+
+        long hits = (long) SHOPS * ROUNDS;
+        System.out.printf("json:   %d bytes/value, %d ns/hit%n", jsonBytes / SHOPS, jsonNanos / hits);
+        System.out.printf("binary: %d bytes/value, %d ns/hit%n", binaryBytes / SHOPS, binaryNanos / hits);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static long parseJson(List<String> jsons, int rounds) {
+        long sum = 0;
+        for(int r = 0; r < rounds; r++) {
+            for(String json : jsons) {
+                RedisDataDTO<Object> redisData = JSONUtil.toBean(json, RedisDataDTO.class);
+                Shop shop = JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+                sum += shop.getSold();
+            }
+        }
+        return sum;
+    }
+
+    private long parseBinary(List<byte[]> binaries, int rounds) {
+        long sum = 0;
+        for(int r = 0; r < rounds; r++) {
+            for(byte[] binary : binaries) {
+                sum += cacheSerializer.deserialize(binary, Shop.class).getData().getSold();
+            }
+        }
+        return sum;
+    }
+
+    private static Shop shop(int i) {
+        return new Shop()
+                .setId((long) i + 1)
+                .setName("103茶餐厅" + i)
+                .setTypeId((long) i % 10 + 1)
+                .setImages("https://example.com/" + i + "/1.jpg,https://example.com/" + i + "/2.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑" + i + "号")
+                .setX(120.149192 + i * 0.0001)
+                .setY(30.316078 + i * 0.0001)
+                .setAvgPrice(80L + i % 50)
+                .setSold(4215 + i)
+                .setComments(3035 + i)
+                .setScore(37 + i % 13)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+}
@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.RedisDataDTO;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheSerializerTest {
+    private final CacheSerializer serializer = new CacheSerializer(
+            Arrays.asList(new ShopCacheCodec(), new BlogCacheCodec(), new UserDTOCacheCodec()));
+
+    @Test
+    void shopRoundTripsWithExpireAndCost() {
+        Shop shop = shop();
+        byte[] bytes = serializer.serialize(shop, 1_700_000_000_123L, 42);
+
+        CacheEntry<Shop> entry = serializer.deserialize(bytes, Shop.class);
+
+        assertEquals(shop, entry.getData());
+        assertEquals(1_700_000_000_123L, entry.getExpireAt());
+        assertEquals(42, entry.getCost());
+    }
+
+    @Test
+    void nullFieldsStayNull() {
+        Shop shop = new Shop().setId(7L);
+
+        Shop read = serializer.deserialize(serializer.serialize(shop, 0), Shop.class).getData();
+
+        assertEquals(7L, read.getId());
+        assertNull(read.getName());
+        assertNull(read.getX());
+        assertNull(read.getSold());
+        assertNull(read.getCreateTime());
+    }
+
+    @Test
+    void distanceIsNotCached() {
+        Shop shop = shop().setDistance(12.5);
+
+        Shop read = serializer.deserialize(serializer.serialize(shop, 0), Shop.class).getData();
+
+        assertNull(read.getDistance());
+    }
+
+    @Test
+    void binaryIsSmallerThanJson() {
+        Shop shop = shop();
+
+        byte[] binary = serializer.serialize(shop, 0);
+
+        assertTrue(binary.length < JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    @Test
+    void userDtoRoundTrips() {
+        UserDTO user = new UserDTO();
+        user.setId(3L);
+        user.setNickName("小明");
+        user.setIcon("/icon.png");
+
+        CacheEntry<UserDTO> entry = serializer.deserialize(serializer.serialize(user, 0), UserDTO.class);
+
+        assertEquals(user, entry.getData());
+        assertEquals(0, entry.getExpireAt());
+        assertEquals(0, entry.getCost());
+    }
+
+    @Test
+    void typeWithoutCodecUsesJsonPayload() {
+        ShopType type = new ShopType().setId(2L).setName("KTV").setIcon("/ktv.png").setSort(3);
+
+        CacheEntry<ShopType> entry = serializer.deserialize(serializer.serialize(type, 99L), ShopType.class);
+
+        assertEquals(type, entry.getData());
+        assertEquals(99L, entry.getExpireAt());
+    }
+
+    @Test
+    void readsLegacyJson() {
+        Shop shop = shop();
+        byte[] json = JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8);
+
+        CacheEntry<Shop> entry = serializer.deserialize(json, Shop.class);
+
+        assertEquals(shop.getId(), entry.getData().getId());
+        assertEquals(shop.getName(), entry.getData().getName());
+        assertEquals(0, entry.getExpireAt());
+    }
+
+    @Test
+    void readsLegacyLogicalExpireJson() {
+        Shop shop = shop();
+        LocalDateTime expireTime = LocalDateTime.of(2030, 1, 1, 12, 0);
+        byte[] json = JSONUtil.toJsonStr(new RedisDataDTO<>(expireTime, shop)).getBytes(StandardCharsets.UTF_8);
+
+        CacheEntry<Shop> entry = serializer.deserialize(json, Shop.class);
+
+        assertEquals(shop.getName(), entry.getData().getName());
+        assertEquals(expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), entry.getExpireAt());
+    }
+
+    @Test
+    void rejectsDuplicateCodecId() {
+        assertThrows(IllegalStateException.class,
+                () -> new CacheSerializer(Arrays.asList(new ShopCacheCodec(), new ShopCacheCodec())));
+    }
+
+    @Test
+    void rejectsUnknownCodecId() {
+        byte[] bytes = serializer.serialize(shop(), 0);
+        bytes[2] = 99;
+
+        assertThrows(IllegalStateException.class, () -> serializer.deserialize(bytes, Shop.class));
+    }
+
+    private static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://example.com/1.jpg,https://example.com/2.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39, 123_000_000))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+    }
+}
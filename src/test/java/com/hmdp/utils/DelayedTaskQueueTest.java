@@ -0,0 +1,136 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anySet;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DelayedTaskQueueTest {
+    private static final String KEY = "test:delayed";
+
+    private StringRedisTemplate stringRedisTemplate;
+    private ZSetOperations<String, String> zSet;
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private DelayedTaskQueue queue;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        stringRedisTemplate = mock(StringRedisTemplate.class);
+        zSet = mock(ZSetOperations.class);
+        when(stringRedisTemplate.opsForZSet()).thenReturn(zSet);
+        when(zSet.rangeByScoreWithScores(eq(KEY), anyDouble(), anyDouble(), anyLong(), anyLong()))
+                .thenReturn(Collections.emptySet());
+        // 每个任务都由本节点ZREM成功
+        when(stringRedisTemplate.executePipelined(any(RedisCallback.class))).thenAnswer(invocation -> {
+            List<Object> removed = new ArrayList<>();
+            for(int i = 0; i < 100; i++) {
+                removed.add(1L);
+            }
+            return removed;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        if(queue != null) {
+            queue.shutdown();
+        }
+    }
+
+    @Test
+    void loaderPagesThroughBacklog() {
+        long deadline = System.currentTimeMillis() + 60_000;
+        when(zSet.rangeByScoreWithScores(eq(KEY), anyDouble(), anyDouble(), eq(0L), eq(10L)))
+                .thenReturn(tuples(0, 10, deadline));
+        when(zSet.rangeByScoreWithScores(eq(KEY), anyDouble(), anyDouble(), eq(10L), eq(10L)))
+                .thenReturn(tuples(10, 3, deadline));
+
+        queue = newQueue(120_000);
+
+        verify(zSet, timeout(2000)).rangeByScoreWithScores(eq(KEY), anyDouble(), anyDouble(), eq(10L), eq(10L));
+        assertEquals(13L, waitForLoaded(13));
+    }
+
+    @Test
+    void postponedTaskFiresAtNewDeadline() throws InterruptedException {
+        queue = newQueue(60_000);
+        long start = System.currentTimeMillis();
+        queue.schedule(Collections.singletonMap("t", start + 100));
+        queue.schedule(Collections.singletonMap("t", start + 600));
+        verify(zSet, timeout(1000).times(2)).add(eq(KEY), anySet());
+
+        Thread.sleep(300);
+        assertTrue(handled.isEmpty(), "任务不应在原到期时间执行");
+
+        long end = System.currentTimeMillis() + 2000;
+        while(handled.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(20);
+        }
+        assertEquals(Collections.singletonList("t"), handled);
+        assertTrue(System.currentTimeMillis() - start >= 590);
+    }
+
+    @Test
+    void advancedTaskFiresOnce() throws InterruptedException {
+        queue = newQueue(60_000);
+        long start = System.currentTimeMillis();
+        queue.schedule(Collections.singletonMap("t", start + 500));
+        queue.schedule(Collections.singletonMap("t", start + 100));
+
+        Thread.sleep(900);
+        assertEquals(Collections.singletonList("t"), handled);
+    }
+
+    private DelayedTaskQueue newQueue(long horizonMillis) {
+        return new DelayedTaskQueue("test", KEY, stringRedisTemplate, 10, 64, horizonMillis, 1, 1000, handled::addAll);
+    }
+
+    private long waitForLoaded(long expected) {
+        long end = System.currentTimeMillis() + 2000;
+        long loaded = 0;
+        while(System.currentTimeMillis() < end) {
+            loaded = ((Number) queue.stats().get("loaded")).longValue();
+            if(loaded >= expected) {
+                break;
+            }
+            try {
+                Thread.sleep(20);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return loaded;
+    }
+
+    private static Set<ZSetOperations.TypedTuple<String>> tuples(int from, int count, long deadline) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = new LinkedHashSet<>();
+        for(int i = from; i < from + count; i++) {
+            tuples.add(new DefaultTypedTuple<>("task-" + i, (double) deadline));
+        }
+        return tuples;
+    }
+}
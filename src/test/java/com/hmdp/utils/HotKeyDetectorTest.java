@@ -0,0 +1,137 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class HotKeyDetectorTest {
+    private ZSetOperations<String, String> zSet;
+    private HotKeyDetector detector;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        zSet = mock(ZSetOperations.class);
+        when(redis.opsForZSet()).thenReturn(zSet);
+        detector = new HotKeyDetector(redis);
+        ReflectionTestUtils.setField(detector, "sampleRate", 1);
+        ReflectionTestUtils.setField(detector, "threshold", 10);
+        ReflectionTestUtils.setField(detector, "windowSeconds", 10L);
+        ReflectionTestUtils.setField(detector, "coolWindows", 3);
+    }
+
+    @Test
+    void becomesHotAtThreshold() {
+        for(int i = 1; i < 10; i++) {
+            assertFalse(detector.recordAndCheck("hmdp:shop:1"));
+        }
+
+        assertTrue(detector.recordAndCheck("hmdp:shop:1"));
+        assertEquals(10, detector.estimate("hmdp:shop:1"));
+    }
+
+    @Test
+    void promotedKeyIsNotReportedAgainUntilForgotten() {
+        record("hmdp:shop:1", 10);
+        detector.markPromoted("hmdp:shop:1", "hmdp:shop:cache:1");
+
+        assertFalse(detector.recordAndCheck("hmdp:shop:1"));
+        verify(zSet).add(eq("cache:hot:keys"), eq("hmdp:shop:1|hmdp:shop:cache:1"), anyDouble());
+
+        detector.forget("hmdp:shop:1", "hmdp:shop:cache:1");
+
+        assertTrue(detector.recordAndCheck("hmdp:shop:1"));
+        verify(zSet).remove("cache:hot:keys", "hmdp:shop:1|hmdp:shop:cache:1");
+    }
+
+    @Test
+    void estimateNeverUndercounts() {
+        List<String> keys = new ArrayList<>();
+        for(int i = 0; i < 10_000; i++) {
+            keys.add("hmdp:shop:" + i);
+        }
+        for(String key : keys) {
+            detector.recordAndCheck(key);
+        }
+        record("hmdp:shop:42", 4);
+
+        for(String key : keys) {
+            assertTrue(detector.estimate(key) >= 1);
+        }
+        assertTrue(detector.estimate("hmdp:shop:42") >= 5);
+    }
+
+    @Test
+    void windowHalvesCounts() {
+        record("hmdp:shop:1", 8);
+
+        ReflectionTestUtils.invokeMethod(detector, "onWindow");
+
+        assertEquals(4, detector.estimate("hmdp:shop:1"));
+    }
+
+    @Test
+    void windowDemotesCooledKeys() {
+        List<String> demoted = new ArrayList<>();
+        detector.setDemoteHandler(demoted::add);
+        when(zSet.rangeByScore(eq("cache:hot:keys"), eq(0d), anyDouble()))
+                .thenReturn(Collections.singleton("hmdp:shop:1|hmdp:shop:cache:1"));
+        when(zSet.remove("cache:hot:keys", "hmdp:shop:1|hmdp:shop:cache:1")).thenReturn(1L);
+        when(zSet.range("cache:hot:keys", 0, -1)).thenReturn(Collections.emptySet());
+
+        ReflectionTestUtils.invokeMethod(detector, "onWindow");
+
+        assertEquals(Collections.singletonList("hmdp:shop:cache:1"), demoted);
+    }
+
+    @Test
+    void keyDemotedByAnotherNodeIsSkipped() {
+        List<String> demoted = new ArrayList<>();
+        detector.setDemoteHandler(demoted::add);
+        when(zSet.rangeByScore(eq("cache:hot:keys"), eq(0d), anyDouble()))
+                .thenReturn(Collections.singleton("hmdp:shop:1|hmdp:shop:cache:1"));
+        when(zSet.remove(anyString(), anyString())).thenReturn(0L);
+
+        ReflectionTestUtils.invokeMethod(detector, "onWindow");
+
+        assertTrue(demoted.isEmpty());
+    }
+
+    @Test
+    void stillHotKeyIsRefreshedEachWindow() {
+        record("hmdp:shop:1", 10);
+        detector.markPromoted("hmdp:shop:1", "hmdp:shop:cache:1");
+        when(zSet.range("cache:hot:keys", 0, -1))
+                .thenReturn(Collections.singleton("hmdp:shop:1|hmdp:shop:cache:1"));
+
+        ReflectionTestUtils.invokeMethod(detector, "onWindow");
+
+        verify(zSet, times(2))
+                .add(eq("cache:hot:keys"), eq("hmdp:shop:1|hmdp:shop:cache:1"), anyDouble());
+        assertFalse(detector.recordAndCheck("hmdp:shop:1"));
+    }
+
+    private void record(String key, int times) {
+        for(int i = 0; i < times; i++) {
+            detector.recordAndCheck(key);
+        }
+    }
+}
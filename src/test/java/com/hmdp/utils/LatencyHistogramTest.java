@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyHistogramTest {
+
+    @Test
+    void emptySnapshotIsZero() {
+        Map<String, Object> snapshot = new LatencyHistogram().snapshot();
+
+        assertEquals(0L, snapshot.get("count"));
+        assertEquals(0L, snapshot.get("avgMicros"));
+        assertEquals(0L, snapshot.get("p50Micros"));
+        assertEquals(0L, snapshot.get("p99Micros"));
+        assertEquals(0L, snapshot.get("maxMicros"));
+    }
+
+    @Test
+    void percentilesUseBucketUpperBound() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 90个落在[64, 128)，10个落在[1024, 2048)
+        for(int i = 0; i < 90; i++) {
+            histogram.record(100);
+        }
+        for(int i = 0; i < 10; i++) {
+            histogram.record(1500);
+        }
+
+        Map<String, Object> snapshot = histogram.snapshot();
+
+        assertEquals(100L, snapshot.get("count"));
+        assertEquals((90 * 100L + 10 * 1500L) / 100, snapshot.get("avgMicros"));
+        assertEquals(127L, snapshot.get("p50Micros"));
+        assertEquals(127L, snapshot.get("p90Micros"));
+        assertEquals(2047L, snapshot.get("p99Micros"));
+        assertEquals(1500L, snapshot.get("maxMicros"));
+    }
+
+    @Test
+    void zeroAndNegativeGoToFirstBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(-5);
+
+        Map<String, Object> snapshot = histogram.snapshot();
+
+        assertEquals(2L, snapshot.get("count"));
+        assertEquals(0L, snapshot.get("p99Micros"));
+        assertEquals(0L, snapshot.get("maxMicros"));
+    }
+
+    @Test
+    void nanosAreConvertedToMicros() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(3_000_000);
+
+        assertEquals(3000L, histogram.snapshot().get("maxMicros"));
+        assertEquals(4095L, histogram.snapshot().get("p50Micros"));
+    }
+
+    @Test
+    void hugeValuesAreClampedToLastBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals((1L << 39) - 1, histogram.snapshot().get("p50Micros"));
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().get("maxMicros"));
+    }
+}
@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * 对比下单用户以set与分块bitmap编码时的内存占用和判断是否已下单的耗时，
+ * 用户id连续（dense）与分散在users * 100的范围内（sparse）两种分布；使用临时key，结束后删除。运行：
+ * mvn test -Dtest=SeckillBuyersBenchmark -Dbenchmark=true
+ *   -Dbenchmark.redis.host=127.0.0.1 -Dbenchmark.redis.port=6379 -Dbenchmark.redis.password=...
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class SeckillBuyersBenchmark {
+    private static final int USERS = 100_000;
+    private static final int LOOKUPS = 20_000;
+
+    private LettuceConnectionFactory connectionFactory;
+    private StringRedisTemplate stringRedisTemplate;
+
+    @BeforeEach
+    void setUp() {
+        RedisStandaloneConfiguration config = new RedisStandaloneConfiguration(
+                System.getProperty("benchmark.redis.host", "127.0.0.1"),
+                Integer.getInteger("benchmark.redis.port", 6379));
+        String password = System.getProperty("benchmark.redis.password");
+        if(password != null && !password.isEmpty()) {
+            config.setPassword(password);
+        }
+        connectionFactory = new LettuceConnectionFactory(config);
+        connectionFactory.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterEach
+    void tearDown() {
+        connectionFactory.destroy();
+    }
+
+    @Test
+    void compareBuyerEncoding() {
+        Random random = new Random(42);
+        long[] dense = new long[USERS];
+        long[] sparse = new long[USERS];
+        for(int i = 0; i < USERS; i++) {
+            dense[i] = 1_000_000L + i;
+            sparse[i] = (long) (random.nextDouble() * USERS * 100);
+        }
+        compareBuyerEncoding("dense", dense);
+        compareBuyerEncoding("sparse", sparse);
+    }
+
+    private void compareBuyerEncoding(String name, long[] userIds) {
+        String setKey = "bench:buyers:set:" + name;
+        String bitmapKey = "bench:buyers:bitmap:" + name;
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(setKey);
+        keys.add(SeckillBuyers.countKey(bitmapKey));
+        for(long userId : userIds) {
+            keys.add(SeckillBuyers.chunkKey(bitmapKey, userId));
+        }
+        try {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for(long userId : userIds) {
+                    connection.setCommands().sAdd(bytes(setKey), bytes(String.valueOf(userId)));
+                    connection.stringCommands().setBit(bytes(SeckillBuyers.chunkKey(bitmapKey, userId)),
+                            SeckillBuyers.offset(userId), true);
+                }
+                return null;
+            });
+            stringRedisTemplate.opsForValue().set(SeckillBuyers.countKey(bitmapKey), String.valueOf(userIds.length));
+
+            long setBytes = memoryUsage(setKey);
+            long bitmapBytes = 0;
+            for(String key : keys) {
+                if(!key.equals(setKey)) {
+                    bitmapBytes += memoryUsage(key);
+                }
+            }
+
+            long start = System.nanoTime();
+            for(int i = 0; i < LOOKUPS; i++) {
+                stringRedisTemplate.opsForSet().isMember(setKey, String.valueOf(userIds[i]));
+            }
+            long setNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int i = 0; i < LOOKUPS; i++) {
+                stringRedisTemplate.opsForValue().getBit(SeckillBuyers.chunkKey(bitmapKey, userIds[i]),
+                        SeckillBuyers.offset(userIds[i]));
+            }
+            long bitmapNanos = System.nanoTime() - start;
+
+            System.out.printf("%s users: %d, set: %d bytes, bitmap: %d bytes in %d chunks (%.1f%%)%n",
+                    name, userIds.length, setBytes, bitmapBytes, keys.size() - 2, 100.0 * bitmapBytes / setBytes);
+            System.out.printf("%s lookup: set %d ns, bitmap %d ns%n", name, setNanos / LOOKUPS, bitmapNanos / LOOKUPS);
+        } finally {
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    private long memoryUsage(String key) {
+        Object usage = stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("MEMORY", bytes("USAGE"), bytes(key), bytes("SAMPLES"), bytes("0")));
+        return usage == null ? 0 : (Long) usage;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
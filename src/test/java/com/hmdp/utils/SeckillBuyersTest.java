@@ -0,0 +1,67 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class SeckillBuyersTest {
+
+    @Test
+    void usersAreSplitIntoChunks() {
+        String orderKey = SeckillSegments.orderKey(1L);
+
+        assertEquals(orderKey + ":0", SeckillBuyers.chunkKey(orderKey, 0));
+        assertEquals(orderKey + ":0", SeckillBuyers.chunkKey(orderKey, SeckillBuyers.CHUNK_BITS - 1));
+        assertEquals(orderKey + ":1", SeckillBuyers.chunkKey(orderKey, SeckillBuyers.CHUNK_BITS));
+        assertEquals(orderKey + ":15", SeckillBuyers.chunkKey(orderKey, 15 * SeckillBuyers.CHUNK_BITS + 7));
+    }
+
+    @Test
+    void offsetIsPositionWithinChunk() {
+        assertEquals(0, SeckillBuyers.offset(0));
+        assertEquals(SeckillBuyers.CHUNK_BITS - 1, SeckillBuyers.offset(SeckillBuyers.CHUNK_BITS - 1));
+        assertEquals(0, SeckillBuyers.offset(SeckillBuyers.CHUNK_BITS));
+        assertEquals(7, SeckillBuyers.offset(15 * SeckillBuyers.CHUNK_BITS + 7));
+    }
+
+    @Test
+    void chunkAndOffsetIdentifyUser() {
+        // 偏移相同的用户位于不同的块
+        long a = 123_456_789L;
+        long b = a + SeckillBuyers.CHUNK_BITS;
+        String orderKey = SeckillSegments.orderKey(1L);
+        assertEquals(SeckillBuyers.offset(a), SeckillBuyers.offset(b));
+        assertNotEquals(SeckillBuyers.chunkKey(orderKey, a), SeckillBuyers.chunkKey(orderKey, b));
+    }
+
+    @Test
+    void scriptKeysShareSlotWithOrderKey() {
+        String orderKey = SeckillSegments.orderKey(42L);
+        long userId = 9_000_000L;
+
+        assertEquals(Arrays.asList(SeckillBuyers.chunkKey(orderKey, userId), SeckillBuyers.countKey(orderKey)),
+                SeckillBuyers.keys(orderKey, userId));
+        int slot = SlotHash.getSlot(orderKey);
+        for(String key : SeckillBuyers.keys(orderKey, userId)) {
+            assertEquals(slot, SlotHash.getSlot(key));
+        }
+        assertEquals(slot, SlotHash.getSlot(SeckillSegments.stockKey(42L)));
+        assertEquals(slot, SlotHash.getSlot(SeckillVoucherMeta.metaKey(42L)));
+        assertEquals(slot, SlotHash.getSlot(SeckillVoucherMeta.countKey(42L)));
+    }
+
+    @Test
+    void segmentKeysShareSlot() {
+        String orderKey = SeckillSegments.orderKey(42L, 3);
+        int slot = SlotHash.getSlot(SeckillSegments.stockKey(42L, 3));
+
+        assertEquals(slot, SlotHash.getSlot(orderKey));
+        for(String key : SeckillBuyers.keys(orderKey, 1L)) {
+            assertEquals(slot, SlotHash.getSlot(key));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SeckillStockLeaseTest {
+    private static final Long VOUCHER_ID = 7L;
+
+    private StringRedisTemplate redis;
+    private ValueOperations<String, String> value;
+    private SeckillVoucherMeta meta;
+    private SeckillStockLease lease;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        redis = mock(StringRedisTemplate.class);
+        value = mock(ValueOperations.class);
+        meta = mock(SeckillVoucherMeta.class);
+        when(redis.opsForValue()).thenReturn(value);
+        when(redis.execute(any(RedisScript.class), anyList(), anyString())).thenReturn(50L);
+        lease = new SeckillStockLease(redis, meta);
+        ReflectionTestUtils.setField(lease, "enabled", true);
+        ReflectionTestUtils.setField(lease, "leaseSize", 50L);
+        ReflectionTestUtils.setField(lease, "exhaustedRetryMillis", 1000L);
+        ReflectionTestUtils.setField(lease, "idleMillis", 3000L);
+    }
+
+    @Test
+    void idleLeaseReturnsStockAndStaysOpen() {
+        assertTrue(lease.tryAcquire(VOUCHER_ID));
+        idleFor(5000);
+
+        ReflectionTestUtils.invokeMethod(lease, "returnExpired");
+
+        verify(value).increment(SeckillSegments.stockKey(VOUCHER_ID), 49L);
+        assertEquals(0L, remaining());
+        // 租用未关闭，再次扣减时重新租用
+        assertTrue(lease.isActive(VOUCHER_ID));
+        assertTrue(lease.tryAcquire(VOUCHER_ID));
+        assertEquals(49L, remaining());
+    }
+
+    @Test
+    void activeLeaseKeepsStock() {
+        assertTrue(lease.tryAcquire(VOUCHER_ID));
+
+        ReflectionTestUtils.invokeMethod(lease, "returnExpired");
+
+        verify(value, never()).increment(anyString(), anyLong());
+        assertEquals(49L, remaining());
+    }
+
+    @Test
+    void endedLeaseIsClosed() {
+        assertTrue(lease.tryAcquire(VOUCHER_ID));
+        when(meta.endMillis(VOUCHER_ID)).thenReturn(System.currentTimeMillis() - 1000);
+
+        ReflectionTestUtils.invokeMethod(lease, "returnExpired");
+
+        verify(value, times(1)).increment(eq(SeckillSegments.stockKey(VOUCHER_ID)), eq(49L));
+        assertFalse(lease.isActive(VOUCHER_ID));
+    }
+
+    private void idleFor(long millis) {
+        Object state = leases().get(VOUCHER_ID);
+        ReflectionTestUtils.setField(state, "lastAcquired", System.currentTimeMillis() - millis);
+    }
+
+    private long remaining() {
+        Map<String, Object> stats = lease.stats();
+        @SuppressWarnings("unchecked")
+        Map<Long, Long> remaining = (Map<Long, Long>) stats.get("remaining");
+        return remaining.get(VOUCHER_ID);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, Object> leases() {
+        return (Map<Long, Object>) ReflectionTestUtils.getField(lease, "leases");
+    }
+}
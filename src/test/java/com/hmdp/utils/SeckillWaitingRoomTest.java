@@ -0,0 +1,168 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SeckillWaitingRoomTest {
+    private static final Long VOUCHER_ID = 3L;
+    private static final Long USER_ID = 1001L;
+    private static final long END_MILLIS = 1_900_000_000_000L;
+
+    private SeckillWaitingRoom room;
+    private SeckillWaitingRoom other;
+
+    @BeforeEach
+    void setUp() {
+        room = newRoom("secret-a");
+        other = newRoom("secret-a");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(room, "shutdown");
+        ReflectionTestUtils.invokeMethod(other, "shutdown");
+    }
+
+    @Test
+    void ticketIsVerifiedLocally() {
+        String ticket = room.takeTicket(VOUCHER_ID, USER_ID);
+
+        Map<String, Object> status = room.status(VOUCHER_ID, USER_ID, ticket);
+        assertNotNull(status);
+        assertEquals(5L, status.get("ticket"));
+        assertEquals(false, status.get("admitted"));
+        assertFalse(status.containsKey("pass"));
+    }
+
+    @Test
+    void tamperedTicketIsRejected() {
+        String ticket = room.takeTicket(VOUCHER_ID, USER_ID);
+        String signature = ticket.substring(ticket.indexOf('.'));
+
+        // 改小排队号、换用户、换优惠券、改签名
+        assertNull(room.status(VOUCHER_ID, USER_ID, "1" + signature));
+        assertNull(room.status(VOUCHER_ID, USER_ID + 1, ticket));
+        assertNull(room.status(VOUCHER_ID + 1, USER_ID, ticket));
+        assertNull(room.status(VOUCHER_ID, USER_ID, ticket + "x"));
+        assertNull(room.status(VOUCHER_ID, USER_ID, "abc" + signature));
+        assertNull(room.status(VOUCHER_ID, USER_ID, null));
+    }
+
+    @Test
+    void admittedTicketGetsPassValidOnOtherNodes() {
+        String ticket = room.takeTicket(VOUCHER_ID, USER_ID);
+        setWatermark(room, 5);
+
+        Map<String, Object> status = room.status(VOUCHER_ID, USER_ID, ticket);
+        assertEquals(true, status.get("admitted"));
+        String pass = (String) status.get("pass");
+
+        assertTrue(room.admit(VOUCHER_ID, USER_ID, pass));
+        // 相同secret的节点可以验证
+        assertTrue(other.admit(VOUCHER_ID, USER_ID, pass));
+        assertFalse(newRoom("secret-b").admit(VOUCHER_ID, USER_ID, pass));
+        assertFalse(room.admit(VOUCHER_ID, USER_ID + 1, pass));
+        assertFalse(room.admit(VOUCHER_ID + 1, USER_ID, pass));
+    }
+
+    @Test
+    void expiredOrForgedPassIsRejected() {
+        String ticket = room.takeTicket(VOUCHER_ID, USER_ID);
+        setWatermark(room, 5);
+        String pass = (String) room.status(VOUCHER_ID, USER_ID, ticket).get("pass");
+        String signature = pass.substring(pass.indexOf('.'));
+
+        // 延长有效期后签名不再匹配
+        long later = System.currentTimeMillis() + 3_600_000;
+        assertFalse(room.admit(VOUCHER_ID, USER_ID, later + signature));
+        long past = System.currentTimeMillis() - 1000;
+        String expired = past + "." + ReflectionTestUtils.invokeMethod(room, "sign",
+                "p:" + VOUCHER_ID + ":" + USER_ID + ":" + past);
+        assertFalse(room.admit(VOUCHER_ID, USER_ID, expired));
+        assertFalse(room.admit(VOUCHER_ID, USER_ID, null));
+        assertFalse(room.admit(VOUCHER_ID, USER_ID, "."));
+    }
+
+    @Test
+    void ticketScriptKeysShareSlot() {
+        assertEquals(SlotHash.getSlot(SeckillWaitingRoom.roomKey(VOUCHER_ID)),
+                SlotHash.getSlot(SeckillWaitingRoom.ticketsKey(VOUCHER_ID)));
+    }
+
+    @Test
+    void ticketKeysExpireAtVoucherEnd() {
+        room.takeTicket(VOUCHER_ID, USER_ID);
+
+        verify(redis(room)).execute(any(RedisScript.class),
+                eq(Arrays.asList(SeckillWaitingRoom.roomKey(VOUCHER_ID), SeckillWaitingRoom.ticketsKey(VOUCHER_ID))),
+                eq(USER_ID.toString()), eq(String.valueOf(END_MILLIS)));
+    }
+
+    @Test
+    void unsegmentedStockIsReadInsideWatermarkScript() {
+        StringRedisTemplate redis = redis(room);
+        when(redis.execute(any(RedisScript.class), anyList(), anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(Arrays.asList(8L, 4L));
+        room.takeTicket(VOUCHER_ID, USER_ID);
+
+        ReflectionTestUtils.invokeMethod(room, "refresh");
+
+        verify(redis).execute(any(RedisScript.class),
+                eq(Arrays.asList(SeckillWaitingRoom.roomKey(VOUCHER_ID), SeckillSegments.stockKey(VOUCHER_ID))),
+                anyString(), anyString(), anyString(), anyString());
+        verify(redis, never()).opsForValue();
+        Map<String, Object> status = room.status(VOUCHER_ID, USER_ID, room.takeTicket(VOUCHER_ID, USER_ID));
+        assertEquals(8L, status.get("watermark"));
+        assertEquals(true, status.get("admitted"));
+        // 所有key在同一slot
+        assertEquals(SlotHash.getSlot(SeckillWaitingRoom.roomKey(VOUCHER_ID)),
+                SlotHash.getSlot(SeckillSegments.stockKey(VOUCHER_ID)));
+    }
+
+    private static StringRedisTemplate redis(SeckillWaitingRoom room) {
+        return (StringRedisTemplate) ReflectionTestUtils.getField(room, "stringRedisTemplate");
+    }
+
+    private static SeckillWaitingRoom newRoom(String secret) {
+        StringRedisTemplate redis = mock(StringRedisTemplate.class);
+        when(redis.execute(any(RedisScript.class), anyList(), anyString(), anyString())).thenReturn(5L);
+        SeckillVoucherMeta meta = mock(SeckillVoucherMeta.class);
+        when(meta.endMillis(VOUCHER_ID)).thenReturn(END_MILLIS);
+        SeckillWaitingRoom room = new SeckillWaitingRoom(redis, mock(SeckillSegments.class), meta);
+        ReflectionTestUtils.setField(room, "enabled", true);
+        ReflectionTestUtils.setField(room, "secret", secret);
+        ReflectionTestUtils.setField(room, "passTtlSeconds", 30L);
+        // 测试中不刷新水位
+        ReflectionTestUtils.setField(room, "refreshMillis", 3_600_000L);
+        ReflectionTestUtils.invokeMethod(room, "init");
+        return room;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void setWatermark(SeckillWaitingRoom room, long watermark) {
+        Map<Long, Object> rooms = (Map<Long, Object>) ReflectionTestUtils.getField(room, "rooms");
+        ReflectionTestUtils.setField(rooms.get(VOUCHER_ID), "watermark", watermark);
+    }
+}
@@ -0,0 +1,115 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SingleFlightTest {
+    private final SingleFlight singleFlight = new SingleFlight();
+
+    @Test
+    void concurrentCallsShareOneLoad() throws Exception {
+        int threads = 8;
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(pool.submit(() -> singleFlight.execute("k", () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "v";
+            })));
+            started.await(5, TimeUnit.SECONDS);
+            for(int i = 1; i < threads; i++) {
+                results.add(pool.submit(() -> singleFlight.execute("k", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                })));
+            }
+            // 等待其他线程进入等待后再完成加载
+            Thread.sleep(100);
+            release.countDown();
+            for(Future<String> result : results) {
+                assertEquals("v", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, loads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void nextCallLoadsAgainAfterCompletion() {
+        AtomicInteger loads = new AtomicInteger();
+
+        singleFlight.execute("k", loads::incrementAndGet);
+        singleFlight.execute("k", loads::incrementAndGet);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void differentKeysDoNotShare() {
+        assertEquals("a", singleFlight.execute("a", () -> "a"));
+        assertEquals("b", singleFlight.execute("b", () -> "b"));
+    }
+
+    @Test
+    void failureIsRethrownAndNotCached() {
+        IllegalStateException failure = new IllegalStateException("db down");
+
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> singleFlight.execute("k", () -> {
+                    throw failure;
+                }));
+
+        assertSame(failure, thrown);
+        assertEquals("ok", singleFlight.execute("k", () -> "ok"));
+    }
+
+    @Test
+    void waitersReceiveTheLoaderFailure() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> loader = pool.submit(() -> singleFlight.execute("k", () -> {
+                started.countDown();
+                await(release);
+                throw new IllegalStateException("db down");
+            }));
+            started.await(5, TimeUnit.SECONDS);
+            Future<Object> waiter = pool.submit(() -> singleFlight.execute("k", () -> "other"));
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals(IllegalStateException.class,
+                    assertThrows(Exception.class, () -> waiter.get(5, TimeUnit.SECONDS)).getCause().getClass());
+            assertThrows(Exception.class, () -> loader.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
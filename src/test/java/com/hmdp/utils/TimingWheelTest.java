@@ -0,0 +1,78 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    @Test
+    void rejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(0, 8));
+        assertThrows(IllegalArgumentException.class, () -> new TimingWheel<String>(10, 1));
+    }
+
+    @Test
+    void expiredTaskIsReturnedToCaller() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8);
+        assertFalse(wheel.add("past", System.currentTimeMillis() - 1000));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void taskIsPolledAfterItsDeadline() throws InterruptedException {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8);
+        long deadline = System.currentTimeMillis() + 50;
+        assertTrue(wheel.add("a", deadline));
+        assertEquals(1, wheel.size());
+
+        List<String> expired = pollUntil(wheel, 1, 2000);
+        assertEquals(Arrays.asList("a"), expired);
+        // 精度为tick，在到期时间所在tick的起点返回
+        assertTrue(System.currentTimeMillis() >= deadline - deadline % 10);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void overflowTaskIsDemotedAndPolledOnTime() throws InterruptedException {
+        // 第一层跨度80ms，300ms后到期的任务放入上层
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8);
+        long deadline = System.currentTimeMillis() + 300;
+        assertTrue(wheel.add("far", deadline));
+
+        assertTrue(wheel.poll(100, TimeUnit.MILLISECONDS).isEmpty());
+        List<String> expired = pollUntil(wheel, 1, 2000);
+        assertEquals(Arrays.asList("far"), expired);
+        assertTrue(System.currentTimeMillis() >= deadline - deadline % 10);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void tasksArePolledInDeadlineOrder() throws InterruptedException {
+        TimingWheel<String> wheel = new TimingWheel<>(10, 8);
+        long now = System.currentTimeMillis();
+        wheel.add("c", now + 250);
+        wheel.add("a", now + 30);
+        wheel.add("b", now + 120);
+
+        assertEquals(Arrays.asList("a", "b", "c"), pollUntil(wheel, 3, 2000));
+    }
+
+    private static List<String> pollUntil(TimingWheel<String> wheel, int count, long timeoutMillis)
+            throws InterruptedException {
+        List<String> expired = new ArrayList<>();
+        long end = System.currentTimeMillis() + timeoutMillis;
+        while(expired.size() < count && System.currentTimeMillis() < end) {
+            expired.addAll(wheel.poll(50, TimeUnit.MILLISECONDS));
+        }
+        return expired;
+    }
+}